@@ -0,0 +1,82 @@
+package net.placemarkt.flow;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import net.placemarkt.AddressFormatter;
+import net.placemarkt.FormatResult;
+
+/**
+ * A {@link Flow.Processor} that formats each component JSON it receives and publishes a
+ * {@link FormatResult} for it, in order. Invalid records are published as failed results rather
+ * than terminating the stream.
+ *
+ * <p>Records are requested from upstream one at a time, and publishing blocks while a subscriber's
+ * buffer is full, so a slow subscriber slows the upstream instead of growing memory. Subscribers are
+ * signalled on the given executor, such as a virtual-thread-per-task executor.
+ *
+ * <p>Subscribe downstream before subscribing the processor to its upstream: once the processor is
+ * closed, or has no subscribers left, it cancels its upstream subscription instead of requesting
+ * more records.
+ *
+ * <p>Flow needs Java 9, so this lives in its own module while the core library targets Java 8.
+ */
+public class FormatProcessor extends SubmissionPublisher<FormatResult>
+    implements Flow.Processor<String, FormatResult> {
+  private final AddressFormatter formatter;
+  private final String fallbackCountryCode;
+  private Flow.Subscription subscription;
+
+  public FormatProcessor(AddressFormatter formatter) {
+    this(formatter, null, ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+  }
+
+  public FormatProcessor(AddressFormatter formatter, String fallbackCountryCode, Executor executor,
+      int maxBufferCapacity) {
+    super(executor, maxBufferCapacity);
+    this.formatter = formatter;
+    this.fallbackCountryCode = fallbackCountryCode;
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    if (this.subscription != null) {
+      subscription.cancel();
+      return;
+    }
+    this.subscription = subscription;
+    subscription.request(1);
+  }
+
+  @Override
+  public void onNext(String json) {
+    if (isClosed() || !hasSubscribers()) {
+      cancelUpstream();
+      return;
+    }
+    try {
+      submit(formatter.tryFormat(json, fallbackCountryCode));
+    } catch (IllegalStateException e) {
+      // closed since the check above
+      cancelUpstream();
+      return;
+    }
+    subscription.request(1);
+  }
+
+  private void cancelUpstream() {
+    subscription.cancel();
+    close();
+  }
+
+  @Override
+  public void onError(Throwable error) {
+    closeExceptionally(error);
+  }
+
+  @Override
+  public void onComplete() {
+    close();
+  }
+}
@@ -0,0 +1,167 @@
+package net.placemarkt.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import net.placemarkt.AddressFormatter;
+import net.placemarkt.FormatResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FormatProcessorTest {
+  private static final List<String> RECORDS = Arrays.asList(
+      "{country_code: 'US', house_number: '301', road: 'Hamilton Avenue', city: 'Palo Alto', state: 'California'}",
+      "{road: 'Main Street'}",
+      "{country_code: 'DE', road: 'Unter den Linden', house_number: '77', city: 'Berlin', postcode: '10117'}",
+      "{country_code: 'GB', road: 'Baker Street', house_number: '221B', city: 'London'}");
+
+  private AddressFormatter formatter;
+  private ExecutorService executor;
+
+  @Before
+  public void setup() {
+    formatter = new AddressFormatter(false, false);
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void publishesResultsInOrderAndKeepsGoingAfterBadRecords() throws Exception {
+    FormatProcessor processor = new FormatProcessor(formatter, null, executor, 2);
+    Collector collector = new Collector();
+    processor.subscribe(collector);
+
+    try (SubmissionPublisher<String> upstream = new SubmissionPublisher<>(executor, 2)) {
+      upstream.subscribe(processor);
+      RECORDS.forEach(upstream::submit);
+    }
+    assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+
+    assertNull(collector.error);
+    assertEquals(RECORDS.size(), collector.results.size());
+    for (int i = 0; i < RECORDS.size(); i++) {
+      FormatResult expected = formatter.tryFormat(RECORDS.get(i), null);
+      FormatResult actual = collector.results.get(i);
+      assertEquals(expected.getStatus(), actual.getStatus());
+      assertEquals(expected.getAddress(), actual.getAddress());
+    }
+    assertEquals(FormatResult.Status.MISSING_COUNTRY_CODE, collector.results.get(1).getStatus());
+  }
+
+  @Test
+  public void requestsOneRecordPerRecordReceived() {
+    FormatProcessor processor = new FormatProcessor(formatter, null, executor, 4);
+    processor.subscribe(new Collector());
+    Upstream upstream = new Upstream();
+    processor.onSubscribe(upstream);
+    assertEquals(Collections.singletonList(1L), upstream.requests);
+
+    for (String record : RECORDS) {
+      processor.onNext(record);
+    }
+    assertEquals(Collections.nCopies(RECORDS.size() + 1, 1L), upstream.requests);
+    assertFalse(upstream.cancelled);
+    processor.close();
+  }
+
+  @Test
+  public void cancelsUpstreamOnceDownstreamCancels() throws Exception {
+    FormatProcessor processor = new FormatProcessor(formatter, null, executor, 4);
+    Collector collector = new Collector();
+    processor.subscribe(collector);
+    assertTrue(collector.subscribed.await(10, TimeUnit.SECONDS));
+    Upstream upstream = new Upstream();
+    processor.onSubscribe(upstream);
+
+    processor.onNext(RECORDS.get(0));
+    collector.subscription.cancel();
+    // SubmissionPublisher drops a cancelled subscriber asynchronously
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (processor.hasSubscribers() && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    processor.onNext(RECORDS.get(2));
+
+    assertTrue(upstream.cancelled);
+    assertEquals(Arrays.asList(1L, 1L), upstream.requests);
+    assertTrue(processor.isClosed());
+    processor.onNext(RECORDS.get(3));
+    assertEquals(Arrays.asList(1L, 1L), upstream.requests);
+  }
+
+  @Test
+  public void cancelsUpstreamInsteadOfSubmittingWhenClosed() {
+    FormatProcessor processor = new FormatProcessor(formatter, null, executor, 4);
+    processor.subscribe(new Collector());
+    Upstream upstream = new Upstream();
+    processor.onSubscribe(upstream);
+    processor.close();
+
+    processor.onNext(RECORDS.get(0));
+    assertTrue(upstream.cancelled);
+    assertEquals(Collections.singletonList(1L), upstream.requests);
+  }
+
+  private static class Upstream implements Flow.Subscription {
+    final List<Long> requests = Collections.synchronizedList(new ArrayList<>());
+    volatile boolean cancelled;
+
+    @Override
+    public void request(long n) {
+      requests.add(n);
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+    }
+  }
+
+  private static class Collector implements Flow.Subscriber<FormatResult> {
+    final List<FormatResult> results = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch subscribed = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    volatile Flow.Subscription subscription;
+    volatile Throwable error;
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(Long.MAX_VALUE);
+      subscribed.countDown();
+    }
+
+    @Override
+    public void onNext(FormatResult result) {
+      results.add(result);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      this.error = error;
+      done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      done.countDown();
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package net.placemarkt.micrometer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import net.placemarkt.FormatterMetrics;
+
+/**
+ * Publishes AddressFormatter metrics to a Micrometer registry:
+ *
+ * <ul>
+ *   <li>{@code <prefix>.stage}, a timer tagged with the stage name</li>
+ *   <li>{@code <prefix>.calls}, a counter tagged with the country code</li>
+ *   <li>{@code <prefix>.regex.cache}, {@code <prefix>.template.cache} and
+ *   {@code <prefix>.result.cache}, counters tagged with {@code result=hit} or
+ *   {@code result=miss}</li>
+ * </ul>
+ *
+ * The prefix defaults to {@code address.formatter}.
+ */
+public class MicrometerFormatterMetrics implements FormatterMetrics {
+  public static final String DEFAULT_PREFIX = "address.formatter";
+
+  private final MeterRegistry registry;
+  private final String prefix;
+  private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+  private final ConcurrentMap<String, Counter> countryCounters = new ConcurrentHashMap<>();
+  private final Counter regexCacheHits;
+  private final Counter regexCacheMisses;
+  private final Counter templateCacheHits;
+  private final Counter templateCacheMisses;
+  private final Counter resultCacheHits;
+  private final Counter resultCacheMisses;
+
+  public MicrometerFormatterMetrics(MeterRegistry registry) {
+    this(registry, DEFAULT_PREFIX);
+  }
+
+  public MicrometerFormatterMetrics(MeterRegistry registry, String prefix) {
+    this.registry = registry;
+    this.prefix = prefix;
+    for (Stage stage : Stage.values()) {
+      stageTimers.put(stage, Timer.builder(prefix + ".stage")
+          .tag("stage", stage.name().toLowerCase(Locale.ROOT))
+          .register(registry));
+    }
+    this.regexCacheHits = cacheCounter("regex", "hit");
+    this.regexCacheMisses = cacheCounter("regex", "miss");
+    this.templateCacheHits = cacheCounter("template", "hit");
+    this.templateCacheMisses = cacheCounter("template", "miss");
+    this.resultCacheHits = cacheCounter("result", "hit");
+    this.resultCacheMisses = cacheCounter("result", "miss");
+  }
+
+  @Override
+  public void stageCompleted(Stage stage, long nanos) {
+    stageTimers.get(stage).record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void countryFormatted(String countryCode) {
+    Counter counter = countryCounters.get(countryCode);
+    if (counter == null) {
+      counter = countryCounters.computeIfAbsent(countryCode, code -> Counter.builder(prefix + ".calls")
+          .tag("country", code)
+          .register(registry));
+    }
+    counter.increment();
+  }
+
+  @Override
+  public void regexCacheHit() {
+    regexCacheHits.increment();
+  }
+
+  @Override
+  public void regexCacheMiss() {
+    regexCacheMisses.increment();
+  }
+
+  @Override
+  public void templateCacheHit() {
+    templateCacheHits.increment();
+  }
+
+  @Override
+  public void templateCacheMiss() {
+    templateCacheMisses.increment();
+  }
+
+  @Override
+  public void resultCacheHit() {
+    resultCacheHits.increment();
+  }
+
+  @Override
+  public void resultCacheMiss() {
+    resultCacheMisses.increment();
+  }
+
+  private Counter cacheCounter(String cache, String result) {
+    return Counter.builder(prefix + "." + cache + ".cache")
+        .tag("result", result)
+        .register(registry);
+  }
+}
@@ -0,0 +1,81 @@
+package net.placemarkt;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * The address-formatting country testcases, as the component JSON that AddressFormatterTest feeds
+ * to format(). Benchmarks are expected to run from the project root with the submodule checked out.
+ */
+final class Corpus {
+  static final String COUNTRIES = "address-formatting/testcases/countries";
+
+  private Corpus() {
+  }
+
+  static List<String> components() {
+    ObjectMapper yamlReader = new ObjectMapper(new YAMLFactory());
+    ObjectMapper jsonWriter = new ObjectMapper();
+    List<String> components = new ArrayList<>();
+    try (Stream<Path> paths = Files.list(Paths.get(COUNTRIES))) {
+      for (Path path : paths.sorted().collect(Collectors.toList())) {
+        Object obj = yamlReader.readValue(Transpiler.readFile(path.toString()), Object.class);
+        JsonNode node = jsonWriter.valueToTree(obj);
+        components.add(node.get("components").toString());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return components;
+  }
+
+  /*
+   * Testcases that the given formatter can format, so benchmarks measure the successful path.
+   */
+  static List<String> formattable(AddressFormatter formatter) {
+    return components().stream()
+        .filter(json -> formatter.tryFormat(json, null).isSuccess())
+        .collect(Collectors.toList());
+  }
+
+  /*
+   * The given records with invalidPercent of them, picked at random, made unformattable: half lose
+   * their country code and half get an unknown one. Missing country codes are only rejected when
+   * there is no fallback, so callers should format these without one.
+   */
+  static List<String> mixed(List<String> records, int invalidPercent, long seed) {
+    ObjectMapper mapper = new ObjectMapper();
+    Random random = new Random(seed);
+    List<String> mixed = new ArrayList<>(records.size());
+    try {
+      for (String json : records) {
+        if (random.nextInt(100) >= invalidPercent) {
+          mixed.add(json);
+          continue;
+        }
+        ObjectNode node = (ObjectNode) mapper.readTree(json);
+        node.remove(Arrays.asList("country_code", "countryCode"));
+        if (random.nextBoolean()) {
+          node.put("country_code", "XX");
+        }
+        mixed.add(mapper.writeValueAsString(node));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return mixed;
+  }
+}
@@ -0,0 +1,60 @@
+package net.placemarkt;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * End-to-end format() over the testcase corpus, one record per operation, and formatTo() into a
+ * StringBuilder that is cleared after each record, as a bulk export writing to a file would.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FormatBenchmark {
+
+  @Param({"false", "true"})
+  public boolean abbreviate;
+
+  private AddressFormatter formatter;
+  private String[] records;
+  private int next;
+  private final StringBuilder out = new StringBuilder(256);
+
+  @Setup
+  public void setup() {
+    formatter = new AddressFormatter(abbreviate, false);
+    List<String> formattable = Corpus.formattable(formatter);
+    records = formattable.toArray(new String[0]);
+  }
+
+  @Benchmark
+  public String format() throws IOException {
+    String json = records[next];
+    next = next + 1 == records.length ? 0 : next + 1;
+    return formatter.format(json);
+  }
+
+  @Benchmark
+  public int formatTo() throws IOException {
+    String json = records[next];
+    next = next + 1 == records.length ? 0 : next + 1;
+    out.setLength(0);
+    formatter.formatTo(out, json);
+    return out.length();
+  }
+}
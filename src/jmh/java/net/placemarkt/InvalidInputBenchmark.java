@@ -0,0 +1,64 @@
+package net.placemarkt;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * A corpus where invalidPercent of the records have a missing or unknown country code, formatted
+ * through tryFormat and through format with a catch, as a bulk import of dirty data would. Rejected
+ * records should cost no more than formatted ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class InvalidInputBenchmark {
+
+  @Param({"0", "10", "50", "100"})
+  public int invalidPercent;
+
+  private AddressFormatter formatter;
+  private String[] records;
+  private int next;
+
+  @Setup
+  public void setup() {
+    formatter = new AddressFormatter(false, false);
+    List<String> mixed = Corpus.mixed(Corpus.formattable(formatter), invalidPercent, 42);
+    records = mixed.toArray(new String[0]);
+  }
+
+  private String nextRecord() {
+    String json = records[next];
+    next = next + 1 == records.length ? 0 : next + 1;
+    return json;
+  }
+
+  @Benchmark
+  public FormatResult tryFormat() {
+    return formatter.tryFormat(nextRecord());
+  }
+
+  @Benchmark
+  public String formatAndCatch() throws IOException {
+    try {
+      return formatter.format(nextRecord());
+    } catch (InvalidAddressException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package net.placemarkt;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.management.ObjectName;
+
+/*
+ * Retained heap of the rules with every country loaded and with only a subset, as set with the
+ * placemarkt.countries system property or AddressFormatter.restrictRules. Each rule set is loaded
+ * from the classpath, or from the directory given with --rules such as one SyntheticRules wrote,
+ * compiled for all of its countries, and measured after full collections while it is the only one
+ * reachable. --histogram also prints the largest classes of a heap histogram taken while the full
+ * rules are held. Pass the subset as a comma-separated argument; the default is a typical
+ * 15-country deployment.
+ */
+public final class RuleFootprint {
+  static final String DEFAULT_COUNTRIES = "US,CA,MX,BR,GB,IE,FR,DE,ES,IT,NL,BE,CH,AU,JP";
+  static final int HISTOGRAM_ROWS = 12;
+
+  private static volatile RuleSet retained;
+  private static Path rulesDirectory;
+
+  private RuleFootprint() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    boolean histogram = false;
+    String countries = DEFAULT_COUNTRIES;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--histogram")) {
+        histogram = true;
+      } else if (args[i].equals("--rules") && i + 1 < args.length) {
+        rulesDirectory = Paths.get(args[++i]);
+      } else if (!args[i].startsWith("--")) {
+        countries = args[i];
+      } else {
+        System.err.println("Usage: RuleFootprint [--rules DIR] [--histogram] [COUNTRIES]");
+        System.exit(2);
+      }
+    }
+    Set<String> countryCodes = new TreeSet<>(Arrays.asList(countries.split(",")));
+
+    // The formatter's own rules and every class loading touches are part of the baseline.
+    Templates.getRules();
+    load(countryCodes);
+
+    long baseline = heapUsedAfterGc();
+    retained = load(null);
+    long full = heapUsedAfterGc() - baseline;
+    report("all countries", full);
+    if (histogram) {
+      printHistogram();
+    }
+
+    retained = null;
+    baseline = heapUsedAfterGc();
+    retained = load(countryCodes);
+    long subset = heapUsedAfterGc() - baseline;
+    report(String.join(",", countryCodes), subset);
+    System.out.printf("subset retains %.1f%% of the full rules%n", 100.0 * subset / full);
+  }
+
+  private static RuleSet load(Set<String> countryCodes) throws IOException {
+    RuleSet rules = rulesDirectory != null ? Templates.loadRules(rulesDirectory) : RuleSnapshot.load();
+    if (rules == null) {
+      rules = Templates.loadJsonRules();
+    }
+    if (countryCodes != null) {
+      rules = rules.restrictTo(countryCodes);
+    }
+    AddressFormatter.preload(rules, rules.getCountryRules().keySet(), true);
+    return rules;
+  }
+
+  private static void report(String countries, long bytes) {
+    System.out.printf("%s: %d countries, %d KiB retained%n", countries,
+        retained.getCountryRules().size() - 1, bytes / 1024);
+  }
+
+  /*
+   * Prints the total and the largest classes of a live-object heap histogram, as jcmd
+   * GC.class_histogram would. Needs a HotSpot JVM.
+   */
+  private static void printHistogram() throws Exception {
+    String histogram = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+        new ObjectName("com.sun.management:type=DiagnosticCommand"), "gcClassHistogram",
+        new Object[]{ new String[0] }, new String[]{ String[].class.getName() });
+    String[] lines = histogram.split("\n");
+    for (int i = 0; i < lines.length; i++) {
+      if (i < HISTOGRAM_ROWS + 2 || lines[i].startsWith("Total")) {
+        System.out.println(lines[i]);
+      }
+    }
+  }
+
+  /*
+   * Collects until the heap stops shrinking, so garbage left by class initialization and earlier
+   * loads is not counted.
+   */
+  private static long heapUsedAfterGc() throws InterruptedException {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 10; i++) {
+      memory.gc();
+      Thread.sleep(100);
+      long now = memory.getHeapMemoryUsage().getUsed();
+      if (now >= used) {
+        break;
+      }
+      used = now;
+    }
+    return used;
+  }
+}
@@ -0,0 +1,159 @@
+package net.placemarkt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Each stage of the format() pipeline on its own. Every record is run through the pipeline once
+ * during setup so each benchmark gets the exact input its stage sees in production. Stages that
+ * modify their input work on a reused scratch map; copyComponents measures loading it on its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StageBenchmark {
+
+  static class Record {
+    String json;
+    Map<String, Object> parsed;
+    ComponentMap normalized;
+    ComponentMap withCountry;
+    ComponentMap aliased;
+    CountryRules template;
+    ComponentMap cleaned;
+    String rendered;
+  }
+
+  private AddressFormatter formatter;
+  private AddressFormatter abbreviatingFormatter;
+  private Record[] records;
+  private ComponentMap scratch;
+  private int next;
+
+  @Setup
+  public void setup() throws IOException {
+    formatter = new AddressFormatter(false, false);
+    abbreviatingFormatter = new AddressFormatter(true, false);
+    RuleSet rules = Templates.getRules();
+    scratch = new ComponentMap(rules);
+    List<Record> prepared = new ArrayList<>();
+    for (String json : Corpus.formattable(formatter)) {
+      Record record = new Record();
+      record.json = json;
+      record.parsed = formatter.readComponents(json, new ComponentMap(rules));
+      record.normalized = new ComponentMap(rules);
+      formatter.normalizeFields(record.parsed, record.normalized);
+      record.withCountry = copy(record.normalized);
+      formatter.determineCountryCode(record.withCountry, null);
+      record.aliased = copy(record.withCountry);
+      formatter.applyAliases(record.aliased);
+      record.template = formatter.findTemplate(record.aliased);
+      record.cleaned = copy(record.aliased);
+      formatter.cleanupInput(record.cleaned, record.template.getReplaceProgram());
+      record.rendered = formatter.executeTemplate(record.template, record.cleaned);
+      prepared.add(record);
+    }
+    records = prepared.toArray(new Record[0]);
+  }
+
+  private static ComponentMap copy(ComponentMap components) {
+    ComponentMap copy = new ComponentMap(components.getRules());
+    copy.copyFrom(components);
+    return copy;
+  }
+
+  private Record nextRecord() {
+    Record record = records[next];
+    next = next + 1 == records.length ? 0 : next + 1;
+    return record;
+  }
+
+  /*
+   * Loads components into the reused scratch map, as the pooled maps are in production.
+   */
+  private ComponentMap scratch(ComponentMap components) {
+    scratch.copyFrom(components);
+    return scratch;
+  }
+
+  @Benchmark
+  public Map<String, Object> copyComponents() {
+    return scratch(nextRecord().aliased);
+  }
+
+  @Benchmark
+  public Map<String, Object> parse() throws IOException {
+    scratch.clear();
+    return formatter.readComponents(nextRecord().json, scratch);
+  }
+
+  @Benchmark
+  public Map<String, Object> normalizeFields() {
+    scratch.clear();
+    formatter.normalizeFields(nextRecord().parsed, scratch);
+    return scratch;
+  }
+
+  @Benchmark
+  public Map<String, Object> determineCountryCode() {
+    ComponentMap components = scratch(nextRecord().normalized);
+    formatter.determineCountryCode(components, null);
+    return components;
+  }
+
+  @Benchmark
+  public Map<String, Object> applyAliases() {
+    ComponentMap components = scratch(nextRecord().withCountry);
+    formatter.applyAliases(components);
+    return components;
+  }
+
+  @Benchmark
+  public Map<String, Object> cleanupInput() {
+    Record record = nextRecord();
+    ComponentMap components = scratch(record.aliased);
+    formatter.cleanupInput(components, record.template.getReplaceProgram());
+    return components;
+  }
+
+  @Benchmark
+  public Map<String, Object> cleanupInputAbbreviated() {
+    Record record = nextRecord();
+    ComponentMap components = scratch(record.aliased);
+    abbreviatingFormatter.cleanupInput(components, record.template.getReplaceProgram());
+    return components;
+  }
+
+  @Benchmark
+  public String renderTemplate() {
+    Record record = nextRecord();
+    return formatter.renderTemplate(record.template, record.cleaned);
+  }
+
+  @Benchmark
+  public String executeTemplate() {
+    Record record = nextRecord();
+    return formatter.executeTemplate(record.template, record.cleaned);
+  }
+
+  @Benchmark
+  public String cleanupRender() {
+    return formatter.cleanupRender(nextRecord().rendered);
+  }
+}
@@ -0,0 +1,53 @@
+package net.placemarkt;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Cold-start cost of loading the rules, each measured once in a fresh JVM: from the binary
+ * snapshot, from the JSON resources, and the first format() call including class initialization.
+ * Run with -prof gc to compare how much each loader allocates.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class StartupBenchmark {
+
+  @Benchmark
+  public RuleSet loadSnapshot() throws IOException {
+    return RuleSnapshot.load();
+  }
+
+  @Benchmark
+  public RuleSet loadJson() throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    return RuleSet.fromJson(read(mapper, "worldwide.json"), read(mapper, "countryNames.json"),
+        read(mapper, "aliases.json"), read(mapper, "abbreviations.json"),
+        read(mapper, "country2Lang.json"), read(mapper, "countyCodes.json"),
+        read(mapper, "stateCodes.json"));
+  }
+
+  @Benchmark
+  public String firstFormat() throws IOException {
+    return new AddressFormatter(false, false).format("{\"country_code\": \"US\", \"house_number\": \"301\", "
+        + "\"road\": \"Hamilton Avenue\", \"city\": \"Palo Alto\", \"postcode\": \"94303\", \"state\": \"California\"}");
+  }
+
+  private static JsonNode read(ObjectMapper mapper, String resource) throws IOException {
+    try (InputStream is = StartupBenchmark.class.getClassLoader().getResourceAsStream(resource)) {
+      return mapper.readTree(is);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package net.placemarkt;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Writes a reproducible rule data set to the given directory, in the layout the Transpiler writes to
+ * src/main/resources, so memory measurements such as RuleFootprint --rules do not depend on the
+ * address-formatting checkout. It has 250 countries over four generic templates, 40 abbreviation
+ * languages with two per country, and 40 state and 30 county names per country, the counties with
+ * an alternate-language name each. With --snapshot it also writes rules.bin.
+ */
+public final class SyntheticRules {
+  static final int COUNTRIES = 250;
+  static final int LANGUAGES = 40;
+  static final int STATES = 40;
+  static final int COUNTIES = 30;
+
+  private static final String CITY = "{{#first}} {{{city}}} || {{{town}}} || {{{village}}} {{/first}}";
+  private static final String[] TEMPLATES = {
+      "{{{attention}}}\n{{{house}}}\n{{{house_number}}} {{{road}}}\n" + CITY
+          + ", {{#first}} {{{state_code}}} || {{{state}}} {{/first}} {{{postcode}}}\n{{{country}}}\n",
+      "{{{attention}}}\n{{{house}}}\n{{{road}}} {{{house_number}}}\n{{{postcode}}} " + CITY + "\n{{{country}}}\n",
+      "{{{attention}}}\n{{{house}}}\n{{{road}}}, {{{house_number}}}\n{{{postcode}}} " + CITY
+          + " {{{county_code}}}\n{{{country}}}\n",
+      "{{{attention}}}\n{{{house}}}, {{{house_number}}} {{{road}}}\n{{{suburb}}}\n" + CITY
+          + " - {{{postcode}}}\n{{{state}}}\n{{{country}}}\n",
+  };
+  private static final String FALLBACK = "{{{attention}}}\n{{{house}}}\n{{{road}}}\n{{{suburb}}}\n" + CITY
+      + "\n{{#first}} {{{county}}} || {{{state_district}}} {{/first}}\n{{{state}}}\n{{{country}}}\n";
+  private static final String[] COMPONENTS = {
+      "attention", "house", "house_number", "road", "suburb", "city", "town", "village", "county",
+      "county_code", "state_district", "state", "state_code", "postcode", "country", "country_code",
+  };
+  private static final String[] WORDS = {
+      "Street", "Road", "Avenue", "Boulevard", "North", "South", "Saint", "Mount", "Lane", "Court",
+      "Place", "Square", "Drive", "Highway", "Park", "Heights", "Point", "Fort",
+  };
+
+  private SyntheticRules() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args[0].startsWith("--")) {
+      System.err.println("Usage: SyntheticRules DIR [--snapshot]");
+      System.exit(2);
+    }
+    write(Paths.get(args[0]), args.length > 1 && args[1].equals("--snapshot"));
+  }
+
+  static void write(Path directory, boolean snapshot) throws IOException {
+    Files.createDirectories(directory);
+    ObjectMapper mapper = new ObjectMapper();
+    Random random = new Random(7);
+
+    List<String> languages = new ArrayList<>();
+    for (int i = 0; i < LANGUAGES; i++) {
+      languages.add(String.format("L%02d", i));
+    }
+
+    ObjectNode worldwide = mapper.createObjectNode();
+    for (int i = 0; i < TEMPLATES.length; i++) {
+      worldwide.put("generic" + (i + 1), TEMPLATES[i]);
+    }
+    worldwide.put("fallback1", FALLBACK);
+    worldwide.putObject("default").put("address_template", TEMPLATES[1]).put("fallback_template", FALLBACK);
+    ObjectNode countryNames = mapper.createObjectNode();
+    ObjectNode countryLanguages = mapper.createObjectNode();
+    ObjectNode stateCodes = mapper.createObjectNode();
+    ObjectNode countyCodes = mapper.createObjectNode();
+    for (int i = 0; i < COUNTRIES; i++) {
+      String code = "" + (char) ('A' + i / 26) + (char) ('A' + i % 26);
+      ObjectNode country = worldwide.putObject(code)
+          .put("address_template", "generic" + (1 + random.nextInt(TEMPLATES.length)))
+          .put("fallback_template", "fallback1");
+      if (i % 5 == 0) {
+        ArrayNode replace = country.putArray("replace");
+        replace.addArray().add("^Township of ").add("");
+        replace.addArray().add("city=^Town of ").add("");
+        country.putArray("postformat_replace").addArray().add("\n" + code + "$").add("\nCountry " + code);
+      }
+      countryNames.put(code, "Country " + code);
+
+      Collections.shuffle(languages, random);
+      countryLanguages.putArray(code).add(languages.get(0)).add(languages.get(1));
+
+      ObjectNode states = stateCodes.putObject(code);
+      for (int j = 0; j < STATES; j++) {
+        states.put(String.format("S%02d", j), "State " + j + " of " + code);
+      }
+      ObjectNode counties = countyCodes.putObject(code);
+      for (int j = 0; j < COUNTIES; j++) {
+        counties.putObject(String.format("C%02d", j)).put("default", "County " + j).put("alt_xx", "Kreis " + j);
+      }
+    }
+
+    ArrayNode aliases = mapper.createArrayNode();
+    for (String component : COMPONENTS) {
+      aliases.addObject().put("alias", component).put("name", component);
+    }
+
+    ObjectNode abbreviations = mapper.createObjectNode();
+    for (String language : languages) {
+      ArrayNode groups = abbreviations.putArray(language);
+      ArrayNode road = groups.addObject().put("component", "road").putArray("replacements");
+      for (int j = 0; j < 60; j++) {
+        for (int w = 0; w < 4; w++) {
+          road.addObject().put("src", WORDS[w] + (j % 50)).put("dest", WORDS[w].substring(0, 3));
+        }
+      }
+      ArrayNode city = groups.addObject().put("component", "city").putArray("replacements");
+      for (String word : WORDS) {
+        city.addObject().put("src", word).put("dest", word.substring(0, 2));
+      }
+    }
+
+    write(mapper, directory, "worldwide.json", worldwide);
+    write(mapper, directory, "countryNames.json", countryNames);
+    write(mapper, directory, "aliases.json", aliases);
+    write(mapper, directory, "abbreviations.json", abbreviations);
+    write(mapper, directory, "country2Lang.json", countryLanguages);
+    write(mapper, directory, "countyCodes.json", countyCodes);
+    write(mapper, directory, "stateCodes.json", stateCodes);
+    if (snapshot) {
+      RuleSet rules = RuleSet.fromJson(worldwide, countryNames, aliases, abbreviations, countryLanguages,
+          countyCodes, stateCodes);
+      try (OutputStream os = Files.newOutputStream(directory.resolve(RuleSnapshot.RESOURCE))) {
+        RuleSnapshot.write(rules, os);
+      }
+    }
+  }
+
+  private static void write(ObjectMapper mapper, Path directory, String fileName, Object data) throws IOException {
+    mapper.writeValue(new File(directory.toFile(), fileName), data);
+  }
+}
@@ -0,0 +1,89 @@
+package net.placemarkt;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Per-call template cost: compiling the Mustache template on every call, as renderTemplate used to,
+ * against rendering through the shared TemplateRegistry.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TemplateBenchmark {
+
+  private AddressFormatter formatter;
+  private List<CountryRules> templates;
+  private List<ComponentMap> components;
+  private Map<String, Object> scope;
+  private int next;
+
+  @Setup
+  public void setup() throws IOException {
+    formatter = new AddressFormatter(false, false);
+    templates = new ArrayList<>();
+    components = new ArrayList<>();
+    for (String json : Corpus.formattable(formatter)) {
+      ComponentMap record = new ComponentMap(Templates.getRules());
+      Map<String, Object> parsed = formatter.readComponents(json, record);
+      if (parsed != record) {
+        formatter.normalizeFields(parsed, record);
+      }
+      formatter.determineCountryCode(record, null);
+      formatter.applyAliases(record);
+      CountryRules template = formatter.findTemplate(record);
+      templates.add(template);
+      formatter.cleanupInput(record, template.getReplaceProgram());
+      components.add(record);
+    }
+    scope = new HashMap<>();
+    scope.put("first", (java.util.function.Function<String, String>) s -> s);
+  }
+
+  @Benchmark
+  public String compilePerCall() {
+    int i = advance();
+    CountryRules template = templates.get(i);
+    Map<String, Object> record = components.get(i);
+    String text = formatter.chooseTemplateVariant(record) == TemplateRegistry.Variant.ADDRESS
+        ? template.getAddressTemplate()
+        : template.getFallbackTemplate();
+    Mustache m = new DefaultMustacheFactory().compile(new StringReader(text), "example");
+    StringWriter st = new StringWriter();
+    m.execute(st, new Object[]{ record, scope });
+    return st.toString();
+  }
+
+  @Benchmark
+  public String compiledRegistry() {
+    int i = advance();
+    return formatter.executeTemplate(templates.get(i), components.get(i));
+  }
+
+  private int advance() {
+    int i = next;
+    next = next + 1 == templates.size() ? 0 : next + 1;
+    return i;
+  }
+}
@@ -0,0 +1,245 @@
+package net.placemarkt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Abbreviations for one country, merged across all of its languages. The rules for a component run
+ * in the order of abbreviations.json, language by language, each one seeing the output of the rules
+ * before it, as when every rule was a separate \b...\b replaceAll. Consecutive rules are compiled
+ * into one word-bounded alternation whenever a single scan gives the same result as applying them in
+ * turn, so most components are scanned once. A rule starts a new pass when a match of its source
+ * could overlap a match of an earlier source in the pass, or text an earlier rule wrote, as
+ * "Service Road" could after "Road" -> "Rd", or when its replacement changes whether its ends are
+ * word characters.
+ */
+class AbbreviationRules {
+  private static final AbbreviationRules EMPTY = new AbbreviationRules(Collections.emptyMap());
+
+  private final Map<String, Rule> rules;
+
+  private AbbreviationRules(Map<String, Rule> rules) {
+    this.rules = rules;
+  }
+
+  /*
+   * Merges the abbreviations of a country's languages, given as language -> component -> source ->
+   * abbreviation tables in abbreviations.yaml order.
+   */
+  static AbbreviationRules merge(List<String> languages,
+      Map<String, Map<String, Map<String, String>>> abbreviationsByLanguage) {
+    if (languages == null) {
+      return EMPTY;
+    }
+
+    Map<String, List<String[]>> replacementsByComponent = new LinkedHashMap<>();
+    for (String language : languages) {
+      Map<String, Map<String, String>> languageAbbreviations = abbreviationsByLanguage.get(language);
+      if (languageAbbreviations == null) {
+        continue;
+      }
+      languageAbbreviations.forEach((component, abbreviations) -> {
+        List<String[]> replacements = replacementsByComponent.computeIfAbsent(component, k -> new ArrayList<>());
+        abbreviations.forEach((src, dest) -> replacements.add(new String[]{ src, dest }));
+      });
+    }
+
+    if (replacementsByComponent.isEmpty()) {
+      return EMPTY;
+    }
+
+    Map<String, Rule> rules = new HashMap<>();
+    replacementsByComponent.forEach((component, replacements) -> {
+      if (!replacements.isEmpty()) {
+        rules.put(component, new Rule(replacements));
+      }
+    });
+    return new AbbreviationRules(Collections.unmodifiableMap(rules));
+  }
+
+  public boolean isEmpty() {
+    return rules.isEmpty();
+  }
+
+  public Map<String, Rule> getRules() {
+    return rules;
+  }
+
+  /*
+   * Abbreviates every component that has rules, in place.
+   */
+  public void apply(Map<String, Object> components) {
+    for (Map.Entry<String, Rule> rule : rules.entrySet()) {
+      Object value = components.get(rule.getKey());
+      if (value != null) {
+        components.put(rule.getKey(), rule.getValue().apply(value.toString()));
+      }
+    }
+  }
+
+  /*
+   * The abbreviations for one component, as passes that each replace every match of one alternation.
+   */
+  static class Rule {
+    private final Pass[] passes;
+    private final int size;
+
+    /*
+     * Compiles source -> abbreviation pairs, given in the order they apply.
+     */
+    Rule(List<String[]> replacements) {
+      List<Pass> passes = new ArrayList<>();
+      List<String[]> pass = new ArrayList<>();
+      for (String[] replacement : replacements) {
+        if (!pass.isEmpty() && !fitsPass(pass, replacement)) {
+          passes.add(new Pass(pass));
+          pass = new ArrayList<>();
+        }
+        pass.add(replacement);
+      }
+      if (!pass.isEmpty()) {
+        passes.add(new Pass(pass));
+      }
+      this.passes = passes.toArray(new Pass[0]);
+      this.size = replacements.size();
+    }
+
+    /*
+     * Returns whether replacement can join the rules in pass without changing what applying them in
+     * turn would produce: no match of its source can overlap a match of an earlier source, or text
+     * an earlier rule wrote, and neither its replacement nor theirs moves a word boundary.
+     */
+    private static boolean fitsPass(List<String[]> pass, String[] replacement) {
+      if (!keepsEdges(replacement)) {
+        return false;
+      }
+      for (String[] earlier : pass) {
+        if (!keepsEdges(earlier) || overlaps(earlier[0], replacement[0]) || overlaps(earlier[1], replacement[0])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /*
+     * Returns whether dest starts and ends with the same kind of character, word or not, as src, so
+     * replacing a match leaves the word boundaries around it where they were.
+     */
+    private static boolean keepsEdges(String[] replacement) {
+      String src = replacement[0];
+      String dest = replacement[1];
+      return !src.isEmpty() && !dest.isEmpty()
+          && !isBoundary(src.charAt(0), dest.charAt(0))
+          && !isBoundary(src.charAt(src.length() - 1), dest.charAt(dest.length() - 1));
+    }
+
+    /*
+     * Returns whether \b could match between a and b. Java has counted Unicode letters and digits
+     * as word characters for \b and, since 19, only ASCII ones, so either counts.
+     */
+    private static boolean isBoundary(char a, char b) {
+      return isUnicodeWordChar(a) != isUnicodeWordChar(b) || isAsciiWordChar(a) != isAsciiWordChar(b);
+    }
+
+    private static boolean isUnicodeWordChar(char c) {
+      return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static boolean isAsciiWordChar(char c) {
+      return c < 128 && (Character.isLetterOrDigit(c) || c == '_');
+    }
+
+    /*
+     * Returns whether word-bounded matches of a and b could share text: some alignment of the two
+     * agrees wherever they overlap, and wherever one of them starts or ends inside the other, the
+     * other has a word boundary there. "Road" overlaps "Service Road", but "Street1" does not
+     * overlap "Street10".
+     */
+    static boolean overlaps(String a, String b) {
+      if (a.isEmpty() || b.isEmpty()) {
+        return false;
+      }
+      for (int offset = 1 - a.length(); offset < b.length(); offset++) {
+        if (alignsAt(a, b, offset)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /*
+     * Returns whether a, placed offset characters after the start of b, can match along with b.
+     */
+    private static boolean alignsAt(String a, String b, int offset) {
+      int from = Math.max(0, offset);
+      int to = Math.min(b.length(), offset + a.length());
+      if (!b.regionMatches(from, a, from - offset, to - from)) {
+        return false;
+      }
+      return boundedAt(b, offset) && boundedAt(b, offset + a.length())
+          && boundedAt(a, -offset) && boundedAt(a, b.length() - offset);
+    }
+
+    /*
+     * Returns whether a word-bounded match can start or end at index of s: always at or past its
+     * ends, and inside it only between a word and a non-word character.
+     */
+    private static boolean boundedAt(String s, int index) {
+      return index <= 0 || index >= s.length() || isBoundary(s.charAt(index - 1), s.charAt(index));
+    }
+
+    public String apply(String value) {
+      for (Pass pass : passes) {
+        value = pass.apply(value);
+      }
+      return value;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    int getPassCount() {
+      return passes.length;
+    }
+  }
+
+  /*
+   * Rules with distinct, non-overlapping sources, applied in one scan.
+   */
+  private static class Pass {
+    private final Pattern pattern;
+    private final Map<String, String> replacements;
+
+    Pass(List<String[]> pairs) {
+      Map<String, String> replacements = new LinkedHashMap<>();
+      List<String> alternatives = new ArrayList<>(pairs.size());
+      for (String[] pair : pairs) {
+        replacements.put(pair[0], pair[1]);
+        alternatives.add(Pattern.quote(pair[0]));
+      }
+      this.pattern = Pattern.compile("\\b(?:" + String.join("|", alternatives) + ")\\b");
+      this.replacements = StringTable.copyOf(replacements);
+    }
+
+    String apply(String value) {
+      Matcher m = pattern.matcher(value);
+      if (!m.find()) {
+        return value;
+      }
+      StringBuilder sb = new StringBuilder(value.length());
+      int last = 0;
+      do {
+        sb.append(value, last, m.start()).append(replacements.get(m.group()));
+        last = m.end();
+      } while (m.find());
+      return sb.append(value, last, value.length()).toString();
+    }
+  }
+}
@@ -1,61 +1,168 @@
 package net.placemarkt;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.fasterxml.jackson.databind.type.MapType;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.github.mustachejava.*;
+import com.google.common.cache.CacheStats;
 import com.google.common.primitives.Ints;
 import java.io.IOException;
 import java.io.StringWriter;
-import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.HashMap;
-import java.util.Spliterator;
-import java.util.Spliterators;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.Function;
-import com.google.common.base.CaseFormat;
-import java.util.Map.Entry;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.stream.Stream;
 import java.util.Optional;
-import java.util.ArrayList;
 
 public class AddressFormatter {
 
   private static final RegexPatternCache regexPatternCache = new RegexPatternCache();
-  private static final List<String> knownComponents = AddressFormatter.getKnownComponents();
-  private static final Map<String, String> replacements = new HashMap<String, String>() {{
-    put("[\\},\\s]+$", "");
-    put("^[,\\s]+", "");
-    put("^- ", "");
-    put(",\\s*,", ", ");
-    put("[ \t]+,[ \t]+", ", ");
-    put("[ \t][ \t]+", " ");
-    put("[ \t]\n", "\n");
-    put("\n,", "\n");
-    put(",+", ",");
-    put(",\n", "\n");
-    put("\n[ \t]+", "\n");
-    put("\n+", "\n");
-  }};
-
-  private final ObjectMapper yamlReader = new ObjectMapper(new YAMLFactory());
+  private static final ComponentMapPool componentMaps =
+      new ComponentMapPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+  private static final Map<String, Object> callback = Collections.singletonMap("first",
+      (Function<String, String>) s -> {
+        String[] splitted = s.split("\\s*\\|\\|\\s*");
+        Optional<String> chosen = Arrays.stream(splitted).filter(v -> v.length() > 0).findFirst();
+        return chosen.orElse("");
+      });
+
+  private static final MapType componentsType = TypeFactory.defaultInstance()
+      .constructMapType(HashMap.class, String.class, String.class);
+  private static final ObjectMapper jsonReader = new ObjectMapper();
+  private static final ObjectMapper yamlReader = new ObjectMapper(new YAMLFactory());
+
   private final boolean abbreviate;
   private final boolean appendCountry;
+  private final FormatterMetrics metrics;
+  private final boolean timed;
+  private final ResultCache resultCache;
+  private final OutputMode outputMode;
 
   public AddressFormatter(Boolean abbreviate, Boolean appendCountry) {
+    this(abbreviate, appendCountry, FormatterMetrics.NOOP);
+  }
+
+  /**
+   * Creates a formatter that reports stage timings, cache hits and misses and per-country counts to
+   * metrics.
+   */
+  public AddressFormatter(Boolean abbreviate, Boolean appendCountry, FormatterMetrics metrics) {
+    this(abbreviate, appendCountry, metrics, null, OutputMode.MULTI_LINE);
+  }
+
+  private AddressFormatter(boolean abbreviate, boolean appendCountry, FormatterMetrics metrics,
+      ResultCache resultCache, OutputMode outputMode) {
     this.abbreviate = abbreviate;
     this.appendCountry = appendCountry;
+    this.metrics = metrics;
+    this.timed = metrics != FormatterMetrics.NOOP;
+    this.resultCache = resultCache;
+    this.outputMode = outputMode;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds an AddressFormatter with optional features that the constructors do not expose.
+   */
+  public static final class Builder {
+    private boolean abbreviate;
+    private boolean appendCountry;
+    private FormatterMetrics metrics = FormatterMetrics.NOOP;
+    private long resultCacheSize;
+    private long resultCacheTtlNanos;
+    private OutputMode outputMode = OutputMode.MULTI_LINE;
+
+    private Builder() {
+    }
+
+    public Builder abbreviate(boolean abbreviate) {
+      this.abbreviate = abbreviate;
+      return this;
+    }
+
+    public Builder appendCountry(boolean appendCountry) {
+      this.appendCountry = appendCountry;
+      return this;
+    }
+
+    public Builder metrics(FormatterMetrics metrics) {
+      this.metrics = metrics != null ? metrics : FormatterMetrics.NOOP;
+      return this;
+    }
+
+    /**
+     * Caches up to maximumSize formatted addresses, keyed on the normalized components and the
+     * fallback country code, so repeated inputs skip the rest of the pipeline. Inputs that fail
+     * are never cached.
+     */
+    public Builder resultCache(long maximumSize) {
+      return resultCache(maximumSize, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Like {@link #resultCache(long)}, but entries also expire ttl after they were cached. A ttl
+     * of zero keeps entries until they are evicted.
+     */
+    public Builder resultCache(long maximumSize, long ttl, TimeUnit unit) {
+      if (maximumSize < 0 || ttl < 0) {
+        throw new IllegalArgumentException("Result cache size and ttl must not be negative");
+      }
+      this.resultCacheSize = maximumSize;
+      this.resultCacheTtlNanos = unit.toNanos(ttl);
+      return this;
+    }
+
+    /**
+     * Lays out addresses as multiple lines (the default), as a single line with a separator, or on
+     * at most a given number of lines. See {@link OutputMode}.
+     */
+    public Builder outputMode(OutputMode outputMode) {
+      this.outputMode = outputMode != null ? outputMode : OutputMode.MULTI_LINE;
+      return this;
+    }
+
+    public AddressFormatter build() {
+      ResultCache resultCache = resultCacheSize > 0 ? new ResultCache(resultCacheSize, resultCacheTtlNanos) : null;
+      return new AddressFormatter(abbreviate, appendCountry, metrics, resultCache, outputMode);
+    }
+  }
+
+  /**
+   * @return hit, miss and eviction counts of the result cache, or empty when this formatter was
+   *     built without one
+   */
+  public Optional<CacheStats> getResultCacheStats() {
+    return resultCache != null ? Optional.of(resultCache.stats()) : Optional.empty();
+  }
+
+  /**
+   * @return hit, miss and eviction counts of the compiled-pattern cache shared by every formatter
+   */
+  public static CacheStats getRegexCacheStats() {
+    return regexPatternCache.stats();
   }
 
   public String format(String json) throws IOException {
@@ -63,49 +170,550 @@ public class AddressFormatter {
   }
 
   public String format(String json, String fallbackCountryCode) throws IOException {
-    TypeFactory factory = TypeFactory.defaultInstance();
-    MapType type = factory.constructMapType(HashMap.class, String.class, String.class);
-    Map<String, Object> components = null;
+    ComponentMap components = componentMaps.acquire(Templates.getRules());
+    try {
+      readNormalized(json, components);
+      return formatNormalized(components, fallbackCountryCode);
+    } finally {
+      releaseComponents(components);
+    }
+  }
+
+  public String format(Map<String, ?> components) {
+    return format(components, null);
+  }
 
+  /**
+   * Formats components that are already held as Java objects, skipping JSON/YAML parsing. Values
+   * are converted with toString().
+   */
+  public String format(Map<String, ?> components, String fallbackCountryCode) {
+    ComponentMap normalized = componentMaps.acquire(Templates.getRules());
     try {
-       components = yamlReader.readValue(json, type);
-    } catch (JsonProcessingException e) {
-      throw(new IOException("Json processing exception", e));
+      normalize(components, normalized);
+      return formatNormalized(normalized, fallbackCountryCode);
+    } finally {
+      releaseComponents(normalized);
+    }
+  }
+
+  public void formatTo(Appendable out, String json) throws IOException {
+    formatTo(out, json, null);
+  }
+
+  /**
+   * Formats like {@link #format(String, String)}, but appends the address to out instead of
+   * returning it. The address is rendered, cleaned up and trimmed in a buffer that is reused by
+   * later calls, and StringBuilders, Writers and CharBuffers receive its characters without an
+   * intermediate String. Nothing is appended when formatting fails.
+   *
+   * @throws IOException if the input cannot be parsed or out cannot be written to
+   */
+  public void formatTo(Appendable out, String json, String fallbackCountryCode) throws IOException {
+    ComponentMap components = componentMaps.acquire(Templates.getRules());
+    try {
+      readNormalized(json, components);
+      formatNormalizedTo(out, components, fallbackCountryCode);
+    } finally {
+      releaseComponents(components);
+    }
+  }
+
+  public void formatTo(Appendable out, Map<String, ?> components) throws IOException {
+    formatTo(out, components, null);
+  }
+
+  /**
+   * Formats components held as Java objects like {@link #format(Map, String)}, appending the
+   * address to out as {@link #formatTo(Appendable, String, String)} does.
+   *
+   * @throws IOException if out cannot be written to
+   */
+  public void formatTo(Appendable out, Map<String, ?> components, String fallbackCountryCode)
+      throws IOException {
+    ComponentMap normalized = componentMaps.acquire(Templates.getRules());
+    try {
+      normalize(components, normalized);
+      formatNormalizedTo(out, normalized, fallbackCountryCode);
+    } finally {
+      releaseComponents(normalized);
+    }
+  }
+
+  private void readNormalized(String json, ComponentMap components) throws IOException {
+    long start = startTiming();
+    Map<String, Object> parsed = readComponents(json, components);
+    start = recordStage(FormatterMetrics.Stage.PARSE, start);
+    if (parsed != components) {
+      normalizeFields(parsed, components);
+    }
+    recordStage(FormatterMetrics.Stage.NORMALIZE, start);
+  }
+
+  private void normalize(Map<String, ?> components, ComponentMap normalized) {
+    long start = startTiming();
+    normalizeFields(components, normalized);
+    recordStage(FormatterMetrics.Stage.NORMALIZE, start);
+  }
+
+  /*
+   * Returns components to the pool, unless their rules have been replaced in the meantime, so that
+   * the pool does not keep old rules reachable.
+   */
+  private static void releaseComponents(ComponentMap components) {
+    if (components.getRules() == Templates.getRules()) {
+      componentMaps.release(components);
+    }
+  }
+
+  private String formatNormalized(ComponentMap components, String fallbackCountryCode) {
+    if (resultCache == null) {
+      return formatComponents(components, fallbackCountryCode);
+    }
+    ResultCache.Key key = ResultCache.key(components.getRules().getVersion(), abbreviate, appendCountry,
+        fallbackCountryCode, components);
+    if (key == null) {
+      return formatComponents(components, fallbackCountryCode);
+    }
+    String address = resultCache.get(key);
+    if (address != null) {
+      metrics.resultCacheHit();
+      return address;
+    }
+    metrics.resultCacheMiss();
+    address = formatComponents(components, fallbackCountryCode);
+    resultCache.put(key, address);
+    return address;
+  }
+
+  private void formatNormalizedTo(Appendable out, ComponentMap components, String fallbackCountryCode)
+      throws IOException {
+    ResultCache.Key key = resultCache == null ? null : ResultCache.key(components.getRules().getVersion(),
+        abbreviate, appendCountry, fallbackCountryCode, components);
+    if (key == null) {
+      renderComponents(components, fallbackCountryCode).appendTo(out);
+      return;
+    }
+    String address = resultCache.get(key);
+    if (address != null) {
+      metrics.resultCacheHit();
+      out.append(address);
+      return;
+    }
+    metrics.resultCacheMiss();
+    RenderCleaner rendered = renderComponents(components, fallbackCountryCode);
+    resultCache.put(key, rendered.getAddress().toString());
+    rendered.appendTo(out);
+  }
+
+  /**
+   * Formats every input in parallel on the common ForkJoinPool. Results are returned in input
+   * order, and a record that cannot be formatted yields a failed FormatResult instead of aborting
+   * the batch.
+   */
+  public List<FormatResult> formatAll(List<String> jsons) {
+    return formatAll(jsons, null, ForkJoinPool.commonPool());
+  }
+
+  public List<FormatResult> formatAll(List<String> jsons, String fallbackCountryCode, ForkJoinPool pool) {
+    FormatResult[] results = new FormatResult[jsons.size()];
+    pool.invoke(new FormatTask(jsons, fallbackCountryCode, results, 0, results.length));
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Lazily formats a stream of inputs, keeping the encounter order. The stream runs in parallel if
+   * the caller made it parallel.
+   */
+  public Stream<FormatResult> formatStream(Stream<String> jsons) {
+    return formatStream(jsons, null);
+  }
+
+  public Stream<FormatResult> formatStream(Stream<String> jsons, String fallbackCountryCode) {
+    return jsons.map(json -> tryFormat(json, fallbackCountryCode));
+  }
+
+  /**
+   * Formats json on the common ForkJoinPool. See {@link #formatAsync(String, String, Executor)}.
+   */
+  public CompletableFuture<String> formatAsync(String json) {
+    return formatAsync(json, null, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Formats json on executor, such as a virtual-thread-per-task executor. The future completes
+   * with the address, or exceptionally with the IOException or InvalidAddressException that
+   * {@link #format(String, String)} would have thrown. The formatter's own code takes no locks and
+   * keeps no per-thread state. Template execution in mustache.java does enter synchronized methods,
+   * when a template is first initialized and on a guard miss in a binding, so on Java 21 a virtual
+   * thread can be pinned for the length of those calls.
+   */
+  public CompletableFuture<String> formatAsync(String json, String fallbackCountryCode, Executor executor) {
+    return formatAsync(() -> format(json, fallbackCountryCode), executor);
+  }
+
+  public CompletableFuture<String> formatAsync(Map<String, ?> components) {
+    return formatAsync(components, null, ForkJoinPool.commonPool());
+  }
+
+  public CompletableFuture<String> formatAsync(Map<String, ?> components, String fallbackCountryCode,
+      Executor executor) {
+    return formatAsync(() -> format(components, fallbackCountryCode), executor);
+  }
+
+  private static CompletableFuture<String> formatAsync(FormatCall call, Executor executor) {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    executor.execute(() -> {
+      try {
+        future.complete(call.format());
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Loads new rule data from a directory or jar holding the resources the Transpiler writes:
+   * rules.bin, or the JSON files when there is no snapshot. Every country's templates and
+   * abbreviation rules are compiled on the calling thread, and only then are the new rules published
+   * to every formatter with an atomic swap. Format calls are never blocked. Calls already running
+   * finish on the rules they started with, and later calls use the new ones. When reloads overlap,
+   * the last one to finish wins. When the placemarkt.countries system property is set, only those
+   * countries are kept, as with {@link #reloadRules(Path, Set)}.
+   *
+   * @throws IOException if the rules cannot be read, in which case the current rules stay in use
+   */
+  public static ReloadReport reloadRules(Path location) throws IOException {
+    long start = System.nanoTime();
+    long heapUsedBefore = heapUsed();
+    Set<String> countryCodes = Templates.getConfiguredCountries();
+    RuleSet rules = Templates.loadRules(location);
+    if (countryCodes != null) {
+      rules = rules.restrictTo(countryCodes);
+    }
+    return swapRules(location.toString(), rules, heapUsedBefore, start);
+  }
+
+  /**
+   * Like {@link #reloadRules(Path)}, but keeps only the given countries, the countries they use
+   * through use_country, and the names, state and county codes, languages and abbreviations those
+   * countries need. Format calls for any other country fail with an invalid country code. Unknown
+   * codes are ignored.
+   *
+   * @throws IOException if the rules cannot be read, in which case the current rules stay in use
+   */
+  public static ReloadReport reloadRules(Path location, Set<String> countryCodes) throws IOException {
+    long start = System.nanoTime();
+    long heapUsedBefore = heapUsed();
+    RuleSet rules = Templates.loadRules(location).restrictTo(countryCodes);
+    return swapRules(location.toString(), rules, heapUsedBefore, start);
+  }
+
+  /**
+   * Replaces the current rules with just the given countries of them, as {@link #reloadRules(Path,
+   * Set)} does, without reading any rule data. The rules of every other country can be collected
+   * once the calls still using them return. To start with a subset instead, set the
+   * placemarkt.countries system property to a comma-separated list of country codes before the
+   * first format call.
+   */
+  public static ReloadReport restrictRules(Set<String> countryCodes) {
+    long start = System.nanoTime();
+    long heapUsedBefore = heapUsed();
+    RuleSet current = Templates.getRules();
+    return swapRules("rules version " + current.getVersion(), current.restrictTo(countryCodes),
+        heapUsedBefore, start);
+  }
+
+  private static ReloadReport swapRules(String source, RuleSet rules, long heapUsedBefore, long start) {
+    PreloadReport compiled = preload(rules, rules.getCountryRules().keySet(), true);
+    long heapUsedAfter = heapUsed();
+
+    RuleSet previous = Templates.replaceRules(rules);
+    componentMaps.clear();
+    return new ReloadReport(source, rules.getVersion(), previous.getVersion(), compiled,
+        heapUsedBefore, heapUsedAfter, System.nanoTime() - start);
+  }
+
+  private static long heapUsed() {
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  /**
+   * @return the version of the rules new format calls use, which increases with every
+   *     {@link #reloadRules(Path)}
+   */
+  public static long getRulesVersion() {
+    return Templates.getRules().getVersion();
+  }
+
+  /**
+   * Compiles the templates and rules of every country ahead of time, so that no format call pays
+   * for compilation. See {@link #preload(Set)}.
+   */
+  public PreloadReport preloadAll() {
+    RuleSet rules = Templates.getRules();
+    return preload(rules, rules.getCountryRules().keySet(), abbreviate);
+  }
+
+  /**
+   * Compiles the address and fallback templates of the given countries, and their abbreviation
+   * rules when this formatter abbreviates, so the first format call for each of them is as fast as
+   * the rest. Compiled templates and rules are shared by all formatters. Unknown country codes are
+   * reported rather than rejected.
+   */
+  public PreloadReport preload(Set<String> countryCodes) {
+    return preload(Templates.getRules(), countryCodes, abbreviate);
+  }
+
+  static PreloadReport preload(RuleSet ruleSet, Set<String> countryCodes, boolean abbreviate) {
+    long start = System.nanoTime();
+    Set<String> pending = new TreeSet<>();
+    Set<String> unknown = new TreeSet<>();
+    for (String countryCode : countryCodes) {
+      String code = countryCode.toUpperCase();
+      if (code.equals("DEFAULT")) {
+        code = "default";
+      }
+      if (ruleSet.getCountryRules(code) == null) {
+        unknown.add(countryCode);
+      } else {
+        pending.add(code);
+      }
+    }
+    pending.add("default");
+
+    Set<String> preloaded = new TreeSet<>();
+    int templates = 0;
+    int abbreviationRules = 0;
+    while (!pending.isEmpty()) {
+      String code = pending.iterator().next();
+      pending.remove(code);
+      if (!preloaded.add(code)) {
+        continue;
+      }
+      CountryRules rules = ruleSet.getCountryRules(code);
+      if (rules.getUseCountry() != null && ruleSet.getCountryRules(rules.getUseCountry()) != null) {
+        pending.add(rules.getUseCountry());
+      }
+      for (TemplateRegistry.Variant variant : TemplateRegistry.Variant.values()) {
+        if (variant.getTemplate(rules) != null) {
+          ruleSet.getTemplateRegistry().get(rules, variant);
+          templates++;
+        }
+      }
+      if (abbreviate) {
+        abbreviationRules += ruleSet.getAbbreviationRules(code).getRules().size();
+      }
+    }
+    return new PreloadReport(preloaded, unknown, templates, abbreviationRules, System.nanoTime() - start);
+  }
+
+  public FormatResult tryFormat(String json) {
+    return tryFormat(json, null);
+  }
+
+  /**
+   * Like {@link #format(String, String)}, but reports invalid input through the returned
+   * {@link FormatResult} instead of throwing. Rejecting a record with a missing or unknown country
+   * code costs about as much as formatting a valid one, which suits bulk imports of dirty data.
+   */
+  public FormatResult tryFormat(String json, String fallbackCountryCode) {
+    return tryFormat(() -> format(json, fallbackCountryCode));
+  }
+
+  public FormatResult tryFormat(Map<String, ?> components) {
+    return tryFormat(components, null);
+  }
+
+  /**
+   * Like {@link #format(Map, String)}, but reports invalid input through the returned
+   * {@link FormatResult} instead of throwing.
+   */
+  public FormatResult tryFormat(Map<String, ?> components, String fallbackCountryCode) {
+    return tryFormat(() -> format(components, fallbackCountryCode));
+  }
+
+  private interface FormatCall {
+    String format() throws IOException;
+  }
+
+  private static FormatResult tryFormat(FormatCall call) {
+    try {
+      return FormatResult.success(call.format());
+    } catch (IOException | RuntimeException e) {
+      return FormatResult.failure(e);
     }
-    components = normalizeFields(components);
+  }
+
+  private class FormatTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int THRESHOLD = 256;
+
+    private final List<String> jsons;
+    private final String fallbackCountryCode;
+    private final FormatResult[] results;
+    private final int from;
+    private final int to;
+
+    FormatTask(List<String> jsons, String fallbackCountryCode, FormatResult[] results, int from, int to) {
+      this.jsons = jsons;
+      this.fallbackCountryCode = fallbackCountryCode;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= THRESHOLD) {
+        for (int i = from; i < to; i++) {
+          results[i] = tryFormat(jsons.get(i), fallbackCountryCode);
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new FormatTask(jsons, fallbackCountryCode, results, from, middle),
+          new FormatTask(jsons, fallbackCountryCode, results, middle, to));
+    }
+  }
 
+  /*
+   * Runs the rest of the pipeline on normalized components, editing them in place.
+   */
+  String formatComponents(ComponentMap components, String fallbackCountryCode) {
+    return renderComponents(components, fallbackCountryCode).getAddress().toString();
+  }
+
+  /*
+   * Like formatComponents, but leaves the address in the components' RenderCleaner.
+   */
+  RenderCleaner renderComponents(ComponentMap components, String fallbackCountryCode) {
+    long start = startTiming();
     if (fallbackCountryCode != null) {
       components.put("country_code", fallbackCountryCode);
     }
 
-    components = determineCountryCode(components, fallbackCountryCode);
+    determineCountryCode(components, fallbackCountryCode);
     String countryCode = components.get("country_code").toString();
 
-    if (appendCountry && Templates.COUNTRY_NAMES.getData().has(countryCode) && components.get("country") == null) {
-      components.put("country", Templates.COUNTRY_NAMES.getData().get(countryCode).asText());
+    String countryName = components.getRules().getCountryName(countryCode);
+    if (appendCountry && countryName != null && components.get("country") == null) {
+      components.put("country", countryName);
     }
+    start = recordStage(FormatterMetrics.Stage.COUNTRY, start);
+
+    applyAliases(components);
+    CountryRules template = findTemplate(components);
+    recordStage(FormatterMetrics.Stage.ALIAS, start);
+    metrics.countryFormatted(template.getCountryCode());
+    cleanupInput(components, template.getReplaceProgram());
+    return render(template, components);
+  }
 
-    components = applyAliases(components);
-    JsonNode template = findTemplate(components);
-    components = cleanupInput(components, template.get("replace"));
-    return renderTemplate(template, components);
+  private long startTiming() {
+    return timed ? System.nanoTime() : 0L;
   }
 
-  Map<String, Object> normalizeFields(Map<String, Object> components) {
-    Map<String, Object> normalizedComponents = new HashMap<>();
-    for (Map.Entry<String, Object> entry : components.entrySet()) {
-      String field = entry.getKey();
-      Object value = entry.getValue();
-      String newField = CaseFormat.LOWER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, field);
-      if (!normalizedComponents.containsKey(newField)) {
-        normalizedComponents.put(newField, value);
+  /*
+   * Reports the time since start for stage and returns the current time, so consecutive stages can
+   * be chained. Does nothing when this formatter has no metrics.
+   */
+  private long recordStage(FormatterMetrics.Stage stage, long start) {
+    if (!timed) {
+      return 0L;
+    }
+    long now = System.nanoTime();
+    metrics.stageCompleted(stage, now - start);
+    return now;
+  }
+
+  /*
+   * Input that looks like a JSON object is streamed straight into components with the JSON parser,
+   * normalizing keys on the way, and components itself is returned. Anything else, including the
+   * relaxed YAML flow style used in the README and JSON with nested values, goes through the YAML
+   * parser into a new map that the caller still has to normalize.
+   */
+  Map<String, Object> readComponents(String json, ComponentMap components) throws IOException {
+    if (looksLikeJsonObject(json)) {
+      if (readJsonObject(json, components)) {
+        return components;
       }
+      components.clear();
+    }
+
+    try {
+      return yamlReader.readValue(json, componentsType);
+    } catch (JsonProcessingException e) {
+      throw(new IOException("Json processing exception", e));
     }
-    return normalizedComponents;
   }
 
-  Map<String, Object> determineCountryCode(Map<String, Object> components,
-    String fallbackCountryCode) {
+  /*
+   * Reads a flat JSON object of scalars into components. Returns false, leaving components partly
+   * filled, when the input is not strict JSON or has a nested value.
+   */
+  private static boolean readJsonObject(String json, ComponentMap components) throws IOException {
+    try (JsonParser parser = jsonReader.getFactory().createParser(json)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return false;
+      }
+      JsonToken token;
+      while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (value == null || value.isStructStart()) {
+          return false;
+        }
+        putNormalized(components, field, value == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+      }
+      return token == JsonToken.END_OBJECT;
+    } catch (JsonProcessingException e) {
+      return false;
+    }
+  }
+
+  private static boolean looksLikeJsonObject(String json) {
+    int i = skipWhitespace(json, 0);
+    if (i >= json.length() || json.charAt(i) != '{') {
+      return false;
+    }
+    i = skipWhitespace(json, i + 1);
+    return i < json.length() && json.charAt(i) == '"';
+  }
+
+  private static int skipWhitespace(String s, int from) {
+    int i = from;
+    while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  void normalizeFields(Map<String, ?> components, ComponentMap normalizedComponents) {
+    for (Map.Entry<String, ?> entry : components.entrySet()) {
+      putNormalized(normalizedComponents, entry.getKey(), entry.getValue());
+    }
+  }
+
+  /*
+   * Stores value under the snake_case form of field. When several input keys normalize to the same
+   * name, a key already in snake_case wins over its camelCase variants.
+   */
+  private static void putNormalized(ComponentMap components, String field, Object value) {
+    KeyNormalizer.Key key = components.getSchema().normalizeKey(field);
+    int slot = key.getSlot();
+    if (slot >= 0) {
+      if (key.isUnchanged() || !components.hasSlot(slot)) {
+        components.setSlot(slot, value != null ? value.toString() : null);
+      }
+    } else if (key.isUnchanged() || !components.containsKey(key.getName())) {
+      components.put(key.getName(), value != null ? value.toString() : null);
+    }
+  }
+
+  void determineCountryCode(ComponentMap components, String fallbackCountryCode) {
+    RuleSet rules = components.getRules();
     String countryCode;
 
     if (components.get("country_code") != null) {
@@ -113,62 +721,38 @@ public class AddressFormatter {
     } else if (fallbackCountryCode != null) {
       countryCode = fallbackCountryCode;
     } else {
-      throw new Error("No country code provided. Use fallbackCountryCode?");
+      throw InvalidAddressException.MISSING_COUNTRY_CODE;
     }
 
     countryCode = countryCode.toUpperCase();
 
-    if (!Templates.WORLDWIDE.getData().has(countryCode) || countryCode.length() != 2) {
-      throw new Error("Invalid country code");
+    if (rules.getCountryRules(countryCode) == null || countryCode.length() != 2) {
+      throw InvalidAddressException.INVALID_COUNTRY_CODE;
     }
 
     if (countryCode.equals("UK")) {
       countryCode = "GB";
     }
 
-    JsonNode country = Templates.WORLDWIDE.getData().get(countryCode);
-    if (country != null && country.has("use_country")) {
-      String oldCountryCode = countryCode;
-      countryCode = country.get("use_country").asText().toUpperCase();
-
-      if (country.has("change_country")) {
-        String newCountry = country.get("change_country").asText();
-        Pattern p = regexPatternCache.get("\\$(\\w*)");
-        Matcher m = p.matcher(newCountry);
-        String match;
-        if (m.find()) {
-          match = m.group(1); // $state
-          Pattern p2 = regexPatternCache.get(String.format("\\$%s", match));
-          Matcher m2;
-          if (components.get(match) != null && components.containsKey(match)) {
-            m2 = p2.matcher(newCountry);
-            String toReplace = components.get(match).toString();
-            newCountry = m2.replaceAll(toReplace);
-          } else {
-            m2 = p2.matcher(newCountry);
-            newCountry = m2.replaceAll("");
-          }
-          components.put("country", newCountry);
-        }
-        components.put("country", newCountry);
+    CountryRules country = rules.getCountryRules(countryCode);
+    if (country != null && country.getUseCountry() != null) {
+      countryCode = country.getUseCountry();
+
+      if (country.getChangeCountry() != null) {
+        components.put("country", country.changeCountry(components));
       }
 
-      JsonNode oldCountry = Templates.WORLDWIDE.getData().get(oldCountryCode);
-      JsonNode oldCountryAddComponent = oldCountry.get("add_component");
-      if (oldCountryAddComponent != null && oldCountryAddComponent.toString().contains("=")) {
-        String[] pairs = oldCountryAddComponent.textValue().split("=");
-        if (pairs[0].equals("state")) {
-          components.put("state", pairs[1]);
-        }
+      if ("state".equals(country.getAddComponentKey())) {
+        components.put("state", country.getAddComponentValue());
       }
     }
 
     String state = (components.get("state") != null) ? components.get("state").toString() : null;
 
     if (countryCode.equals("NL") && state != null) {
-      Pattern p1 = regexPatternCache.get("sint maarten", Pattern.CASE_INSENSITIVE);
+      Pattern p1 = getPattern("sint maarten", Pattern.CASE_INSENSITIVE);
       Matcher m1 = p1.matcher(state);
-      Pattern p2 = regexPatternCache.get("aruba", Pattern.CASE_INSENSITIVE);
+      Pattern p2 = getPattern("aruba", Pattern.CASE_INSENSITIVE);
       Matcher m2 = p2.matcher(state);
       if (state.equals("Curaçao")) {
         countryCode = "CW";
@@ -183,10 +767,10 @@ public class AddressFormatter {
     }
 
     components.put("country_code", countryCode);
-    return components;
   }
 
-  Map<String, Object> cleanupInput(Map<String, Object> components, JsonNode replacements) {
+  void cleanupInput(ComponentMap components, CountryRules.ReplaceProgram replacements) {
+    long start = startTiming();
     Object country = components.get("country");
     Object state = components.get("state");
 
@@ -194,37 +778,24 @@ public class AddressFormatter {
       components.put("country", state);
       components.remove("state");
     }
-    if (replacements != null && replacements.size() > 0) {
-      for (String component : components.keySet()) {
-        Iterator<JsonNode> rIterator = replacements.iterator();
-        String regex = String.format("^%s=", component);
-        Pattern p = regexPatternCache.get(regex);
-        while (rIterator.hasNext()) {
-          ArrayNode replacement = (ArrayNode) rIterator.next();
-          Matcher m = p.matcher(replacement.get(0).asText());
-          if (m.find()) {
-            m.reset();
-            String value = m.replaceAll("");
-            Pattern replace_pattern = regexPatternCache.get(value);
-            if (replace_pattern.matcher(components.get(component).toString()).find()) {
-              components.put(component, replacement.get(1).asText());
-            }
-            m.reset();
-          } else {
-            Pattern p2 = regexPatternCache.get(replacement.get(0).asText());
-            Matcher m2 = p2.matcher(components.get(component).toString());
-            String value = m2.replaceAll(replacement.get(1).asText());
-            m.reset();
-            components.put(component, value);
-          }
+    if (replacements != null && !replacements.isEmpty()) {
+      ComponentSchema schema = components.getSchema();
+      for (int slot = components.nextSlot(0); slot >= 0; slot = components.nextSlot(slot + 1)) {
+        components.setSlot(slot, replacements.apply(schema.name(slot), components.getSlot(slot)));
+      }
+      Map<String, Object> unknown = components.getOverflow();
+      if (unknown != null) {
+        for (Map.Entry<String, Object> entry : unknown.entrySet()) {
+          entry.setValue(replacements.apply(entry.getKey(), entry.getValue()));
         }
       }
     }
 
     if (!components.containsKey("state_code")  && components.containsKey("state")) {
-      String stateCode = getStateCode(components.get("state").toString(), components.get("country_code").toString());
+      String stateCode = components.getRules().getStateCode(components.get("country_code").toString(),
+          components.get("state").toString());
       components.put("state_code", stateCode);
-      Pattern p = regexPatternCache.get("^washington,? d\\.?c\\.?");
+      Pattern p = getPattern("^washington,? d\\.?c\\.?", 0);
       Matcher m = p.matcher(components.get("state").toString());
       if (m.find()) {
         components.put("state_code", "DC");
@@ -234,27 +805,24 @@ public class AddressFormatter {
     }
 
     if (!components.containsKey("county_code") && components.containsKey("county")) {
-      String countyCode = getCountyCode(components.get("county").toString(), components.get("country_code").toString());
+      String countyCode = components.getRules().getCountyCode(components.get("country_code").toString(),
+          components.get("county").toString());
       components.put("county_code", countyCode);
     }
 
-    List<String> unknownComponents = components.entrySet().stream().filter(component -> {
-      if (component.getKey() == null) {
-        return false;
+    Map<String, Object> unknown = components.getOverflow();
+    if (unknown != null) {
+      String attention = joinUnknownComponents(unknown);
+      if (attention != null) {
+        components.put("attention", attention);
       }
-      return !knownComponents.contains(component.getKey());
-    }).map(component -> component.getValue().toString()).collect(Collectors.toList());
-
-    if (unknownComponents.size() > 0) {
-      components.put("attention", String.join(", ", unknownComponents));
     }
 
-
     if (components.containsKey("postcode")) {
       String postCode = components.get("postcode").toString();
       components.put("postcode", postCode);
-      Pattern p1 = regexPatternCache.get("^(\\d{5}),\\d{5}");
-      Pattern p2 = regexPatternCache.get("\\d+;\\d+");
+      Pattern p1 = getPattern("^(\\d{5}),\\d{5}", 0);
+      Pattern p2 = getPattern("\\d+;\\d+", 0);
       Matcher m1 = p1.matcher(postCode);
       Matcher m2 = p2.matcher(postCode);
       if (postCode.length() > 20) {
@@ -266,214 +834,142 @@ public class AddressFormatter {
       }
     }
 
-    if (abbreviate && components.containsKey("country_code") && Templates.COUNTRY_2_LANG.getData().has(components.get("country_code").toString())) {
-      JsonNode languages = Templates.COUNTRY_2_LANG.getData().get(components.get("country_code").toString());
-      StreamSupport.stream(languages.spliterator(), false)
-          .filter(language -> Templates.ABBREVIATIONS.getData().has(language.textValue()))
-          .map(language -> Templates.ABBREVIATIONS.getData().get(language.textValue())).forEach(
-          languageAbbreviations -> StreamSupport.stream(languageAbbreviations.spliterator(), false)
-              .filter(abbreviation -> abbreviation.has("component"))
-              .forEach(abbreviation -> StreamSupport.stream(abbreviation.get("replacements").spliterator(), false)
-                  .forEach(replacement -> {
-                    String key = abbreviation.get("component").asText();
-                    if (key == null) {
-                      return;
-                    }
-                    if (components.get(key) == null) {
-                      return;
-                    }
-                    String oldComponent = components.get(key).toString();
-                    String src = replacement.get("src").asText();
-                    if (replacement.get("src").equals("Avenue")) {
-                      System.out.println("here");
-                    }
-                    String regex = String.format("\\b%s\\b", replacement.get("src").asText());
-                    Pattern p = regexPatternCache.get(regex);
-                    Matcher m = p.matcher(oldComponent);
-                    String newComponent = m.replaceAll(replacement.get("dest").asText());
-                    components.put(key, newComponent);
-                  })));
-    }
-
-    Pattern p = regexPatternCache.get("^https?://");
-    return components.entrySet().stream().filter(component -> {
-      if (component.getValue() == null) {
-        return false;
-      }
-
-      Matcher m = p.matcher(component.getValue().toString());
+    long abbreviationNanos = 0L;
+    if (abbreviate && components.containsKey("country_code")) {
+      long abbreviationStart = startTiming();
+      components.getRules().getAbbreviationRules(components.get("country_code").toString()).apply(components);
+      abbreviationNanos = recordStage(FormatterMetrics.Stage.ABBREVIATE, abbreviationStart) - abbreviationStart;
+    }
 
-      if (m.matches()) {
-        m.reset();
-        return false;
+    for (int slot = components.nextSlot(0); slot >= 0; slot = components.nextSlot(slot + 1)) {
+      if (isDropped(components.getSlot(slot))) {
+        components.removeSlot(slot);
       }
-
-      m.reset();
-      return true;
-    }).collect(Collectors.toMap(Entry::getKey, Entry::getValue));
-  }
-
-  Map<String, Object> applyAliases(Map<String, Object> components) {
-    Map<String, Object> aliasedComponents = new HashMap<>();
-    components.forEach((key, value) -> {
-      String newKey = key;
-      Iterator<JsonNode> iterator = Templates.ALIASES.getData().elements();
-      while (iterator.hasNext()) {
-        JsonNode pair = iterator.next();
-        if (pair.get("alias").asText().equals(key)
-            && components.get(pair.get("name").asText()) == null) {
-          newKey = pair.get("name").asText();
-          break;
-        }
-      }
-      aliasedComponents.put(key, value);
-      aliasedComponents.put(newKey, value);
-    });
-
-    return aliasedComponents;
-  }
-
-  JsonNode findTemplate(Map<String, Object> components) {
-    JsonNode template;
-    if (Templates.WORLDWIDE.getData().has(components.get("country_code").toString())) {
-      template = Templates.WORLDWIDE.getData().get(components.get("country_code").toString());
-    } else {
-      template = Templates.WORLDWIDE.getData().get("default");
+    }
+    if (unknown != null) {
+      unknown.values().removeIf(AddressFormatter::isDropped);
     }
 
-    return template;
+    if (timed) {
+      metrics.stageCompleted(FormatterMetrics.Stage.CLEANUP, System.nanoTime() - start - abbreviationNanos);
+    }
   }
 
-  JsonNode chooseTemplateText(JsonNode template, Map<String, Object> components) {
-    JsonNode selected;
-    if (template.has("address_template")) {
-      if (Templates.WORLDWIDE.getData().has(template.get("address_template").asText())) {
-        selected = Templates.WORLDWIDE.getData().get(template.get("address_template").asText());
-      } else {
-        selected = template.get("address_template");
+  /*
+   * Joins the values of unknown components in key order, or returns null when there are none.
+   */
+  private static String joinUnknownComponents(Map<String, Object> unknown) {
+    List<String> keys = new ArrayList<>(unknown.size());
+    for (String key : unknown.keySet()) {
+      if (key != null) {
+        keys.add(key);
       }
-    } else {
-      JsonNode defaults = Templates.WORLDWIDE.getData().get("default");
-      selected = Templates.WORLDWIDE.getData().get(defaults.get("address_template").textValue());
     }
-
-    List<String> required = Arrays.asList("road", "postcode");
-    long count = required.stream().filter(req -> !components.containsKey(req)).count();
-    if (count == 2) {
-      if (template.has("fallback_template")) {
-        if (Templates.WORLDWIDE.getData().has(template.get("fallback_template").asText())) {
-          selected = Templates.WORLDWIDE.getData().get(template.get("fallback_template").asText());
-        } else {
-          selected = template.get("fallback_template");
-        }
-      } else {
-        JsonNode defaults = Templates.WORLDWIDE.getData().get("default");
-        selected = Templates.WORLDWIDE.getData().get(defaults.get("fallback_template").textValue());
+    if (keys.isEmpty()) {
+      return null;
+    }
+    Collections.sort(keys);
+    StringBuilder attention = new StringBuilder();
+    for (String key : keys) {
+      if (attention.length() > 0) {
+        attention.append(", ");
       }
+      attention.append(unknown.get(key).toString());
     }
-    return selected;
+    return attention.toString();
   }
 
-  String getStateCode(String state, String countryCode) {
-    if (!Templates.STATE_CODES.getData().has(countryCode)) {
-      return null;
+  /*
+   * Components without a value, or whose value is a bare http:// or https:// scheme, are not
+   * rendered.
+   */
+  private static boolean isDropped(Object value) {
+    if (value == null) {
+      return true;
     }
+    String text = value.toString();
+    return text.equals("http://") || text.equals("https://");
+  }
 
-    JsonNode countryCodes = Templates.STATE_CODES.getData().get(countryCode);
-    Iterator<String> iterator = countryCodes.fieldNames();
-    return StreamSupport
-        .stream(Spliterators.spliteratorUnknownSize(iterator,
-        Spliterator.ORDERED), false).filter(key-> {
-          JsonNode code = countryCodes.get(key);
-      if (code.isObject()) {
-        if (code.has("default")) {
-          return code.get("default").asText().toUpperCase().equals(state.toUpperCase());
+  /*
+   * Copies each alias present to its canonical component, unless that is already set. Aliases are
+   * visited in aliases.json order, so when several aliases of one component are present, the one
+   * listed first wins.
+   */
+  void applyAliases(ComponentMap components) {
+    ComponentSchema schema = components.getSchema();
+    for (int slot = components.nextSlot(0); slot >= 0; slot = components.nextSlot(slot + 1)) {
+      int canonical = schema.canonicalSlot(slot);
+      if (canonical == slot) {
+        continue;
+      }
+      if (canonical >= 0) {
+        if (components.getSlot(canonical) == null) {
+          components.setSlot(canonical, components.getSlot(slot));
         }
-      } else {
-        return code.asText().toUpperCase().equals(state.toUpperCase());
+      } else if (components.get(schema.canonicalName(slot)) == null) {
+        components.put(schema.canonicalName(slot), components.getSlot(slot));
       }
-      return false;
-    }).findFirst().orElse(null);
+    }
   }
 
-  String getCountyCode(String county, String countryCode) {
-    if (!Templates.COUNTY_CODES.getData().has(countryCode)) {
-      return null;
+  CountryRules findTemplate(ComponentMap components) {
+    RuleSet rules = components.getRules();
+    CountryRules template = rules.getCountryRules(components.get("country_code").toString());
+    if (template == null) {
+      template = rules.getCountryRules("default");
     }
-    JsonNode country = Templates.COUNTY_CODES.getData().get(countryCode);
-    Optional<JsonNode> countyCode = StreamSupport.stream(country.spliterator(), true).filter(posCounty -> {
-      if (posCounty.isObject()) {
-        if (posCounty.has("default")) {
-          return posCounty.get("default").asText().toUpperCase().equals(county.toUpperCase());
-        }
-      } else {
-        return posCounty.asText().toUpperCase().equals(county.toUpperCase());
-      }
-      return false;
-    }).findFirst();
 
-    return countyCode.map(JsonNode::asText).orElse(null);
+    return template;
   }
 
-  String renderTemplate(JsonNode template, Map<String, Object> components) {
-    Map<String, Object> callback = new HashMap<>();
-    callback.put("first", (Function<String, String>) s -> {
-      String[] splitted = s.split("\\s*\\|\\|\\s*");
-      Optional<String> chosen = Arrays.stream(splitted).filter(v -> v.length() > 0).findFirst();
-      return chosen.orElse("");
-    });
-
-    JsonNode templateText = chooseTemplateText(template, components);
-    MustacheFactory mf = new DefaultMustacheFactory();
-    Mustache m = mf.compile(new StringReader(templateText.asText()), "example");
-    StringWriter st = new StringWriter();
-    m.execute(st, new Object[]{ components, callback});
-    String rendered = cleanupRender(st.toString());
-
-    if (template.has("postformat_replace")) {
-      ArrayNode postformat = (ArrayNode) template.get("postformat_replace");
-      for (JsonNode regex : postformat) {
-        Pattern p = regexPatternCache.get(regex.get(0).asText());
-        Matcher m2 = p.matcher(rendered);
-        rendered = m2.replaceAll(regex.get(1).asText());
-      }
-    }
-    rendered = cleanupRender(rendered);
-    String trimmed = rendered.trim();
-
-    return trimmed + "\n";
+  TemplateRegistry.Variant chooseTemplateVariant(Map<String, Object> components) {
+    List<String> required = Arrays.asList("road", "postcode");
+    long count = required.stream().filter(req -> !components.containsKey(req)).count();
+    return count == 2 ? TemplateRegistry.Variant.FALLBACK : TemplateRegistry.Variant.ADDRESS;
   }
 
-  String cleanupRender(String rendered) {
-    Set<Map.Entry<String, String>> entries = replacements.entrySet();
-    String deduped = rendered;
+  String renderTemplate(CountryRules template, ComponentMap components) {
+    return render(template, components).getAddress().toString();
+  }
 
-    for(Map.Entry<String, String> replacement : entries) {
-      Pattern p = regexPatternCache.get(replacement.getKey(), Pattern.UNICODE_CHARACTER_CLASS);
-      Matcher m = p.matcher(deduped);
-      String predupe = m.replaceAll(replacement.getValue());
-      deduped = dedupe(predupe);
+  /*
+   * Renders the address into the components' RenderCleaner. The template output, both cleanup
+   * passes, the postformat replacements and the final trim and line layout all edit that one buffer.
+   */
+  RenderCleaner render(CountryRules template, ComponentMap components) {
+    long start = startTiming();
+    RenderCleaner cleaner = components.getRenderCleaner();
+    executeTemplate(template, components, cleaner.writer());
+    start = recordStage(FormatterMetrics.Stage.RENDER, start);
+    cleaner.clean();
+
+    for (CountryRules.Replacement replacement : template.getPostformatReplace()) {
+      cleaner.replaceAll(replacement.getPattern(), replacement.getReplacement());
     }
+    cleaner.clean();
+    cleaner.terminate(outputMode);
+    recordStage(FormatterMetrics.Stage.POST_CLEANUP, start);
+    return cleaner;
+  }
 
-    return deduped;
+  String executeTemplate(CountryRules template, ComponentMap components) {
+    StringWriter st = new StringWriter();
+    executeTemplate(template, components, st);
+    return st.toString();
   }
 
-  String dedupe(String rendered) {
-     return Arrays.stream(rendered.split("\n"))
-        .map(s -> Arrays.stream(s.trim().split(", "))
-            .map(String::trim).distinct().collect(Collectors.joining(", ")))
-        .distinct()
-        .collect(Collectors.joining("\n"));
+  private void executeTemplate(CountryRules template, ComponentMap components, Writer out) {
+    TemplateRegistry templates = components.getRules().getTemplateRegistry();
+    Mustache m = templates.get(template, chooseTemplateVariant(components), metrics);
+    m.execute(out, new Object[]{ components, callback});
   }
 
-  static List<String> getKnownComponents() {
-    List<String> knownComponents = new ArrayList<>();
-    Iterator<JsonNode> fields = net.placemarkt.Templates.ALIASES.getData().elements();
-    while (fields.hasNext()) {
-      JsonNode field = fields.next();
-      knownComponents.add(field.get("alias").textValue());
-    }
+  private Pattern getPattern(String regex, int flags) {
+    return regexPatternCache.get(regex, flags, metrics);
+  }
 
-    return knownComponents;
+  String cleanupRender(String rendered) {
+    return new RenderCleaner().clean(rendered);
   }
 }
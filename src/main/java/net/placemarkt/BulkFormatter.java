@@ -0,0 +1,326 @@
+package net.placemarkt;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Formats newline-delimited JSON or CSV address components from a channel and writes one result
+ * per record, in input order. Records are formatted on a fixed pool of worker threads. At most
+ * maxInFlight records are read ahead of the writer: reading stops until the oldest record has been
+ * written. Memory use therefore stays flat whatever the size of the input.
+ *
+ * <p>NDJSON input yields one {@code {"address": ...}} or {@code {"error": ...}} object per line.
+ * CSV input must start with a header row naming the components. It yields CSV with an address
+ * and an error column. Blank input lines are skipped.
+ *
+ * <p>Run from the command line with:
+ *
+ * <pre>
+ * java -cp ... net.placemarkt.BulkFormatter [--csv] [--threads N] [--max-in-flight N] [--abbreviate]
+ *     [--append-country] [--fallback-country CC] [--output FILE] [FILE | -]
+ * </pre>
+ *
+ * Input is read from stdin when no file or "-" is given, and CSV is assumed for files ending in
+ * .csv.
+ */
+public class BulkFormatter {
+
+  public enum InputFormat {
+    NDJSON,
+    CSV
+  }
+
+  private static final ObjectMapper jsonWriter = new ObjectMapper();
+  private static final String USAGE = "Usage: BulkFormatter [--csv|--ndjson] [--threads N] [--max-in-flight N]"
+      + " [--abbreviate] [--append-country] [--fallback-country CC] [--output FILE] [FILE | -]";
+
+  private final AddressFormatter formatter;
+  private final int threads;
+  private final int maxInFlight;
+
+  public BulkFormatter(AddressFormatter formatter, int threads, int maxInFlight) {
+    if (threads < 1 || maxInFlight < 1) {
+      throw new IllegalArgumentException("threads and maxInFlight must be positive");
+    }
+    this.formatter = formatter;
+    this.threads = threads;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Formats every record read from input and writes the results to output. Neither channel is
+   * closed. If reading fails part way, as on an unterminated quoted CSV field, the records read
+   * before it are still written and flushed before the IOException is thrown.
+   *
+   * @return the number of records formatted, including failed ones
+   */
+  public long format(ReadableByteChannel input, WritableByteChannel output, InputFormat format,
+      String fallbackCountryCode) throws IOException {
+    BufferedReader reader = new BufferedReader(Channels.newReader(input, StandardCharsets.UTF_8.newDecoder(), -1));
+    Writer writer = new BufferedWriter(Channels.newWriter(output, StandardCharsets.UTF_8.newEncoder(), -1));
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+    try {
+      RecordSource source = format == InputFormat.CSV
+          ? new CsvSource(new CsvReader(reader), fallbackCountryCode, writer)
+          : new JsonSource(reader, fallbackCountryCode);
+      Deque<Future<FormatResult>> pending = new ArrayDeque<>(maxInFlight);
+      long count = 0;
+      Callable<FormatResult> task;
+      try {
+        while ((task = source.next()) != null) {
+          if (pending.size() == maxInFlight) {
+            write(format, writer, await(pending.removeFirst()));
+          }
+          pending.addLast(executor.submit(task));
+          count++;
+        }
+      } catch (IOException e) {
+        try {
+          drain(format, writer, pending);
+        } catch (IOException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+        throw e;
+      }
+      drain(format, writer, pending);
+      return count;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /*
+   * Writes the results still in flight, in order, and flushes the writer.
+   */
+  private static void drain(InputFormat format, Writer writer, Deque<Future<FormatResult>> pending)
+      throws IOException {
+    while (!pending.isEmpty()) {
+      write(format, writer, await(pending.removeFirst()));
+    }
+    writer.flush();
+  }
+
+  private static FormatResult await(Future<FormatResult> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while formatting");
+    } catch (ExecutionException e) {
+      return FormatResult.failure(e.getCause());
+    }
+  }
+
+  private static void write(InputFormat format, Writer writer, FormatResult result) throws IOException {
+    if (format == InputFormat.CSV) {
+      writeCsvField(writer, result.isSuccess() ? result.getAddress() : "");
+      writer.write(',');
+      writeCsvField(writer, result.isSuccess() ? "" : String.valueOf(result.getError().getMessage()));
+      writer.write('\n');
+    } else {
+      ObjectNode node = jsonWriter.createObjectNode();
+      if (result.isSuccess()) {
+        node.put("address", result.getAddress());
+      } else {
+        node.put("error", String.valueOf(result.getError().getMessage()));
+      }
+      writer.write(node.toString());
+      writer.write('\n');
+    }
+  }
+
+  private static void writeCsvField(Writer writer, String value) throws IOException {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+      writer.write(value);
+      return;
+    }
+    writer.write('"');
+    writer.write(value.replace("\"", "\"\""));
+    writer.write('"');
+  }
+
+  private interface RecordSource {
+    Callable<FormatResult> next() throws IOException;
+  }
+
+  private class JsonSource implements RecordSource {
+    private final BufferedReader reader;
+    private final String fallbackCountryCode;
+
+    JsonSource(BufferedReader reader, String fallbackCountryCode) {
+      this.reader = reader;
+      this.fallbackCountryCode = fallbackCountryCode;
+    }
+
+    @Override
+    public Callable<FormatResult> next() throws IOException {
+      String line;
+      do {
+        line = reader.readLine();
+      } while (line != null && line.trim().isEmpty());
+      if (line == null) {
+        return null;
+      }
+      String json = line;
+      return () -> formatter.tryFormat(json, fallbackCountryCode);
+    }
+  }
+
+  private class CsvSource implements RecordSource {
+    private final CsvReader reader;
+    private final String fallbackCountryCode;
+    private final Writer writer;
+    private List<String> header;
+
+    CsvSource(CsvReader reader, String fallbackCountryCode, Writer writer) {
+      this.reader = reader;
+      this.fallbackCountryCode = fallbackCountryCode;
+      this.writer = writer;
+    }
+
+    @Override
+    public Callable<FormatResult> next() throws IOException {
+      if (header == null) {
+        header = reader.readRecord();
+        if (header == null) {
+          return null;
+        }
+        writer.write("address,error\n");
+      }
+      List<String> record;
+      do {
+        record = reader.readRecord();
+      } while (record != null && record.size() == 1 && record.get(0).trim().isEmpty());
+      if (record == null) {
+        return null;
+      }
+      Map<String, String> components = new LinkedHashMap<>();
+      for (int i = 0; i < header.size() && i < record.size(); i++) {
+        if (!record.get(i).isEmpty()) {
+          components.put(header.get(i), record.get(i));
+        }
+      }
+      return () -> formatter.tryFormat(components, fallbackCountryCode);
+    }
+  }
+
+  private static class WorkerThreadFactory implements ThreadFactory {
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    private final int pool = POOL_NUMBER.incrementAndGet();
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "bulk-formatter-" + pool + "-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    InputFormat format = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int maxInFlight = -1;
+    boolean abbreviate = false;
+    boolean appendCountry = false;
+    String fallbackCountryCode = null;
+    String output = null;
+    String input = null;
+
+    BulkFormatter bulkFormatter;
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--csv":
+            format = InputFormat.CSV;
+            break;
+          case "--ndjson":
+            format = InputFormat.NDJSON;
+            break;
+          case "--threads":
+            threads = Integer.parseInt(valueOf(args, i++));
+            break;
+          case "--max-in-flight":
+            maxInFlight = Integer.parseInt(valueOf(args, i++));
+            break;
+          case "--abbreviate":
+            abbreviate = true;
+            break;
+          case "--append-country":
+            appendCountry = true;
+            break;
+          case "--fallback-country":
+            fallbackCountryCode = valueOf(args, i++);
+            break;
+          case "--output":
+            output = valueOf(args, i++);
+            break;
+          default:
+            if (input != null || (args[i].startsWith("--") && args[i].length() > 2)) {
+              throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            input = args[i];
+        }
+      }
+      if (input != null && input.equals("-")) {
+        input = null;
+      }
+      if (format == null) {
+        format = input != null && input.toLowerCase(Locale.ROOT).endsWith(".csv") ? InputFormat.CSV : InputFormat.NDJSON;
+      }
+      if (maxInFlight < 1) {
+        maxInFlight = threads * 64;
+      }
+      bulkFormatter = new BulkFormatter(new AddressFormatter(abbreviate, appendCountry), threads, maxInFlight);
+    } catch (IllegalArgumentException e) {
+      // NumberFormatException is an IllegalArgumentException too
+      System.err.println(USAGE);
+      System.exit(2);
+      return;
+    }
+    try (ReadableByteChannel in = input != null
+            ? FileChannel.open(Paths.get(input), StandardOpenOption.READ)
+            : Channels.newChannel(System.in);
+        WritableByteChannel out = output != null
+            ? FileChannel.open(Paths.get(output), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)
+            : Channels.newChannel(System.out)) {
+      bulkFormatter.format(in, out, format, fallbackCountryCode);
+    }
+  }
+
+  /*
+   * Returns the value that follows the flag at index i.
+   */
+  private static String valueOf(String[] args, int i) {
+    if (i + 1 >= args.length) {
+      throw new IllegalArgumentException(args[i] + " needs a value");
+    }
+    return args[i + 1];
+  }
+}
@@ -0,0 +1,301 @@
+package net.placemarkt;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/*
+ * Mutable component map backed by one array slot per known component (see ComponentSchema), with a
+ * HashMap overflow for unknown keys that is only created when one turns up. The pipeline edits it
+ * in place, and clear() keeps every buffer, so a recycled map formats further records without
+ * allocating. Known components iterate in slot order, followed by the unknown ones.
+ *
+ * Values may be null, which is distinct from an absent key, as in HashMap.
+ *
+ * A map also pins the RuleSet it was created for, and every pipeline stage reads its rules from
+ * there, so one format call sees one version of the rules from start to finish. It also carries
+ * the RenderCleaner its call renders into, which is recycled along with it.
+ */
+class ComponentMap extends AbstractMap<String, Object> {
+  private final RuleSet rules;
+  private final ComponentSchema schema;
+  private final Object[] values;
+  private final long[] present;
+  private int knownSize;
+  private HashMap<String, Object> overflow;
+  private EntrySet entrySet;
+  private RenderCleaner renderCleaner;
+
+  ComponentMap(RuleSet rules) {
+    this.rules = rules;
+    this.schema = rules.getComponentSchema();
+    this.values = new Object[schema.size()];
+    this.present = new long[(schema.size() + 63) >>> 6];
+  }
+
+  public RuleSet getRules() {
+    return rules;
+  }
+
+  public ComponentSchema getSchema() {
+    return schema;
+  }
+
+  public RenderCleaner getRenderCleaner() {
+    if (renderCleaner == null) {
+      renderCleaner = new RenderCleaner();
+    }
+    return renderCleaner;
+  }
+
+  /*
+   * Returns the first present slot at or after from, or -1 when there is none.
+   */
+  public int nextSlot(int from) {
+    int word = from >>> 6;
+    if (word >= present.length) {
+      return -1;
+    }
+    long bits = present[word] & (-1L << from);
+    while (true) {
+      if (bits != 0) {
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+      }
+      if (++word == present.length) {
+        return -1;
+      }
+      bits = present[word];
+    }
+  }
+
+  public Object getSlot(int slot) {
+    return values[slot];
+  }
+
+  public boolean hasSlot(int slot) {
+    return (present[slot >>> 6] & (1L << slot)) != 0;
+  }
+
+  public void setSlot(int slot, Object value) {
+    long bit = 1L << slot;
+    if ((present[slot >>> 6] & bit) == 0) {
+      present[slot >>> 6] |= bit;
+      knownSize++;
+    }
+    values[slot] = value;
+  }
+
+  public void removeSlot(int slot) {
+    long bit = 1L << slot;
+    if ((present[slot >>> 6] & bit) != 0) {
+      present[slot >>> 6] &= ~bit;
+      values[slot] = null;
+      knownSize--;
+    }
+  }
+
+  /*
+   * Returns the unknown components, or null when there have been none since the map was cleared.
+   */
+  public Map<String, Object> getOverflow() {
+    return overflow != null && !overflow.isEmpty() ? overflow : null;
+  }
+
+  /*
+   * Makes this map an exact copy of other, which must share its schema.
+   */
+  public void copyFrom(ComponentMap other) {
+    System.arraycopy(other.values, 0, values, 0, values.length);
+    System.arraycopy(other.present, 0, present, 0, present.length);
+    knownSize = other.knownSize;
+    if (overflow != null) {
+      overflow.clear();
+    }
+    if (other.overflow != null && !other.overflow.isEmpty()) {
+      if (overflow == null) {
+        overflow = new HashMap<>();
+      }
+      overflow.putAll(other.overflow);
+    }
+  }
+
+  @Override
+  public Object get(Object key) {
+    int slot = schema.slotOf(key);
+    if (slot >= 0) {
+      return values[slot];
+    }
+    return overflow != null ? overflow.get(key) : null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    int slot = schema.slotOf(key);
+    if (slot >= 0) {
+      return hasSlot(slot);
+    }
+    return overflow != null && overflow.containsKey(key);
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    int slot = schema.slotOf(key);
+    if (slot >= 0) {
+      Object previous = values[slot];
+      setSlot(slot, value);
+      return previous;
+    }
+    if (overflow == null) {
+      overflow = new HashMap<>();
+    }
+    return overflow.put(key, value);
+  }
+
+  @Override
+  public Object remove(Object key) {
+    int slot = schema.slotOf(key);
+    if (slot >= 0) {
+      Object previous = values[slot];
+      removeSlot(slot);
+      return previous;
+    }
+    return overflow != null ? overflow.remove(key) : null;
+  }
+
+  @Override
+  public int size() {
+    return knownSize + (overflow != null ? overflow.size() : 0);
+  }
+
+  @Override
+  public void clear() {
+    if (knownSize > 0) {
+      Arrays.fill(values, null);
+      Arrays.fill(present, 0L);
+      knownSize = 0;
+    }
+    if (overflow != null) {
+      overflow.clear();
+    }
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new EntrySet();
+    }
+    return entrySet;
+  }
+
+  private class EntrySet extends AbstractSet<Entry<String, Object>> {
+    @Override
+    public Iterator<Entry<String, Object>> iterator() {
+      return new EntryIterator();
+    }
+
+    @Override
+    public int size() {
+      return ComponentMap.this.size();
+    }
+
+    @Override
+    public void clear() {
+      ComponentMap.this.clear();
+    }
+  }
+
+  private class EntryIterator implements Iterator<Entry<String, Object>> {
+    private int next = nextSlot(0);
+    private int current = -1;
+    private Iterator<Entry<String, Object>> overflowIterator;
+    private boolean inOverflow;
+
+    @Override
+    public boolean hasNext() {
+      if (next >= 0) {
+        return true;
+      }
+      if (overflowIterator == null) {
+        overflowIterator = overflow != null ? overflow.entrySet().iterator()
+            : Collections.<Entry<String, Object>>emptyIterator();
+      }
+      return overflowIterator.hasNext();
+    }
+
+    @Override
+    public Entry<String, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (next >= 0) {
+        current = next;
+        next = nextSlot(next + 1);
+        return new SlotEntry(current);
+      }
+      inOverflow = true;
+      return overflowIterator.next();
+    }
+
+    @Override
+    public void remove() {
+      if (inOverflow) {
+        overflowIterator.remove();
+      } else if (current >= 0 && hasSlot(current)) {
+        removeSlot(current);
+      } else {
+        throw new IllegalStateException();
+      }
+    }
+  }
+
+  private class SlotEntry implements Entry<String, Object> {
+    private final int slot;
+
+    SlotEntry(int slot) {
+      this.slot = slot;
+    }
+
+    @Override
+    public String getKey() {
+      return schema.name(slot);
+    }
+
+    @Override
+    public Object getValue() {
+      return values[slot];
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      Object previous = values[slot];
+      values[slot] = value;
+      return previous;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry<?, ?> other = (Entry<?, ?>) o;
+      return getKey().equals(other.getKey())
+          && (getValue() == null ? other.getValue() == null : getValue().equals(other.getValue()));
+    }
+
+    @Override
+    public int hashCode() {
+      return getKey().hashCode() ^ (getValue() == null ? 0 : getValue().hashCode());
+    }
+
+    @Override
+    public String toString() {
+      return getKey() + "=" + getValue();
+    }
+  }
+}
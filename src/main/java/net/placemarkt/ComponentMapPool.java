@@ -0,0 +1,56 @@
+package net.placemarkt;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Small lock-free pool of cleared ComponentMaps. Maps are taken and returned with a compare-and-set
+ * on a fixed array of slots, so it needs neither locks nor thread-locals and works the same for
+ * platform and virtual threads. When every slot is taken, acquire allocates a fresh map, and
+ * release drops maps that find no free slot. Maps for rules other than the requested ones are dropped
+ * as they are found, and clear() drops all of them once the rules have been replaced.
+ */
+class ComponentMapPool {
+  private final AtomicReferenceArray<ComponentMap> maps;
+
+  ComponentMapPool(int capacity) {
+    this.maps = new AtomicReferenceArray<>(capacity);
+  }
+
+  public ComponentMap acquire(RuleSet rules) {
+    int start = probe();
+    for (int i = 0; i < maps.length(); i++) {
+      int index = (start + i) % maps.length();
+      ComponentMap map = maps.get(index);
+      if (map != null && maps.compareAndSet(index, map, null)) {
+        if (map.getRules() == rules) {
+          return map;
+        }
+      }
+    }
+    return new ComponentMap(rules);
+  }
+
+  public void release(ComponentMap map) {
+    map.clear();
+    int start = probe();
+    for (int i = 0; i < maps.length(); i++) {
+      int index = (start + i) % maps.length();
+      if (maps.get(index) == null && maps.compareAndSet(index, null, map)) {
+        return;
+      }
+    }
+  }
+
+  public void clear() {
+    for (int i = 0; i < maps.length(); i++) {
+      maps.set(i, null);
+    }
+  }
+
+  /*
+   * Spreads threads over the array so they rarely contend for the same slot.
+   */
+  private int probe() {
+    return (int) (((Thread.currentThread().getId() * 0x9E3779B9L) >>> 1) % maps.length());
+  }
+}
@@ -0,0 +1,76 @@
+package net.placemarkt;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Slot numbering for ComponentMap. Every key listed in aliases.json, alias or canonical name, gets
+ * a slot in the order it first appears there, so iterating slots in ascending order visits aliases
+ * in the priority order of components.yaml.
+ */
+class ComponentSchema {
+  private final Map<String, Integer> slots;
+  private final String[] names;
+  private final String[] canonicalNames;
+  private final int[] canonicalSlots;
+  private final KeyNormalizer keys;
+
+  ComponentSchema(Map<String, String> aliasNames) {
+    Map<String, Integer> slots = new HashMap<>();
+    String[] names = new String[aliasNames.size()];
+    String[] canonicalNames = new String[aliasNames.size()];
+    int slot = 0;
+    for (Map.Entry<String, String> alias : aliasNames.entrySet()) {
+      slots.put(alias.getKey(), slot);
+      names[slot] = alias.getKey();
+      canonicalNames[slot] = alias.getValue();
+      slot++;
+    }
+    int[] canonicalSlots = new int[names.length];
+    for (int i = 0; i < names.length; i++) {
+      Integer canonical = slots.get(canonicalNames[i]);
+      canonicalSlots[i] = canonical != null ? canonical : -1;
+    }
+    this.slots = Collections.unmodifiableMap(slots);
+    this.names = names;
+    this.canonicalNames = canonicalNames;
+    this.canonicalSlots = canonicalSlots;
+    this.keys = new KeyNormalizer(this);
+  }
+
+  /*
+   * Returns the snake_case component name of an input key, along with its slot.
+   */
+  public KeyNormalizer.Key normalizeKey(String field) {
+    return keys.normalize(field);
+  }
+
+  /*
+   * Returns the slot of key, or -1 when key is not a known component.
+   */
+  public int slotOf(Object key) {
+    Integer slot = slots.get(key);
+    return slot != null ? slot : -1;
+  }
+
+  public int size() {
+    return names.length;
+  }
+
+  public String name(int slot) {
+    return names[slot];
+  }
+
+  public String canonicalName(int slot) {
+    return canonicalNames[slot];
+  }
+
+  /*
+   * Returns the slot of the canonical name for the component in slot, or -1 if that name has no
+   * slot of its own.
+   */
+  public int canonicalSlot(int slot) {
+    return canonicalSlots[slot];
+  }
+}
@@ -0,0 +1,297 @@
+package net.placemarkt;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Immutable view of a single worldwide.yaml entry with template references resolved and every
+ * replace/postformat_replace rule compiled up front.
+ */
+class CountryRules {
+  private static final Pattern CHANGE_COUNTRY_VARIABLE = Pattern.compile("\\$(\\w*)");
+  private static final Pattern COMPONENT_PREFIX = Pattern.compile("^(\\w+)=");
+
+  private final String countryCode;
+  private final String addressTemplate;
+  private final String fallbackTemplate;
+  private final String useCountry;
+  private final String changeCountry;
+  private final String changeCountryComponent;
+  private final Pattern changeCountryVariable;
+  private final String addComponentKey;
+  private final String addComponentValue;
+  private final List<Replacement> replace;
+  private final ReplaceProgram replaceProgram;
+  private final List<Replacement> postformatReplace;
+
+  CountryRules(String countryCode, String addressTemplate, String fallbackTemplate, String useCountry,
+      String changeCountry, String addComponentKey, String addComponentValue, List<String[]> replace,
+      List<String[]> postformatReplace) {
+    this.countryCode = countryCode;
+    this.addressTemplate = addressTemplate;
+    this.fallbackTemplate = fallbackTemplate;
+    this.useCountry = useCountry;
+    this.changeCountry = changeCountry;
+
+    Matcher m = changeCountry != null ? CHANGE_COUNTRY_VARIABLE.matcher(changeCountry) : null;
+    if (m != null && m.find()) {
+      this.changeCountryComponent = m.group(1);
+      this.changeCountryVariable = Pattern.compile(String.format("\\$%s", changeCountryComponent));
+    } else {
+      this.changeCountryComponent = null;
+      this.changeCountryVariable = null;
+    }
+
+    this.addComponentKey = addComponentKey;
+    this.addComponentValue = addComponentValue;
+    this.replace = compileReplacements(replace, true);
+    this.replaceProgram = new ReplaceProgram(this.replace);
+    this.postformatReplace = compileReplacements(postformatReplace, false);
+  }
+
+  static CountryRules fromJson(String countryCode, JsonNode country, JsonNode worldwide) {
+    String useCountry = country.has("use_country") ? country.get("use_country").asText().toUpperCase() : null;
+    String changeCountry = country.has("change_country") ? country.get("change_country").asText() : null;
+
+    String addComponentKey = null;
+    String addComponentValue = null;
+    JsonNode addComponent = country.get("add_component");
+    if (addComponent != null && addComponent.toString().contains("=")) {
+      String[] pair = addComponent.textValue().split("=");
+      addComponentKey = pair[0];
+      addComponentValue = pair[1];
+    }
+
+    return new CountryRules(countryCode,
+        resolveTemplate(country, worldwide, "address_template"),
+        resolveTemplate(country, worldwide, "fallback_template"),
+        useCountry, changeCountry, addComponentKey, addComponentValue,
+        readRules(country.get("replace")), readRules(country.get("postformat_replace")));
+  }
+
+  public String getCountryCode() {
+    return countryCode;
+  }
+
+  public String getAddressTemplate() {
+    return addressTemplate;
+  }
+
+  public String getFallbackTemplate() {
+    return fallbackTemplate;
+  }
+
+  public String getUseCountry() {
+    return useCountry;
+  }
+
+  public String getChangeCountry() {
+    return changeCountry;
+  }
+
+  /*
+   * Returns change_country with its $component placeholder substituted from components, or with the
+   * placeholder removed when that component is missing.
+   */
+  public String changeCountry(Map<String, Object> components) {
+    if (changeCountryVariable == null) {
+      return changeCountry;
+    }
+    Object value = components.get(changeCountryComponent);
+    String toReplace = value != null ? value.toString() : "";
+    return changeCountryVariable.matcher(changeCountry).replaceAll(toReplace);
+  }
+
+  public String getAddComponentKey() {
+    return addComponentKey;
+  }
+
+  public String getAddComponentValue() {
+    return addComponentValue;
+  }
+
+  public List<Replacement> getReplace() {
+    return replace;
+  }
+
+  public ReplaceProgram getReplaceProgram() {
+    return replaceProgram;
+  }
+
+  public List<Replacement> getPostformatReplace() {
+    return postformatReplace;
+  }
+
+  private static String resolveTemplate(JsonNode country, JsonNode worldwide, String field) {
+    JsonNode reference = country.has(field) ? country.get(field) : worldwide.get("default").get(field);
+    if (reference == null) {
+      return null;
+    }
+    JsonNode selected = worldwide.has(reference.asText()) ? worldwide.get(reference.asText()) : reference;
+    return selected.asText();
+  }
+
+  private static List<String[]> readRules(JsonNode rules) {
+    if (rules == null || rules.size() == 0) {
+      return Collections.emptyList();
+    }
+    List<String[]> pairs = new ArrayList<>(rules.size());
+    for (JsonNode rule : rules) {
+      pairs.add(new String[]{ rule.get(0).asText(), rule.get(1).asText() });
+    }
+    return pairs;
+  }
+
+  private static List<Replacement> compileReplacements(List<String[]> rules, boolean componentScoped) {
+    if (rules.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Replacement> replacements = new ArrayList<>(rules.size());
+    for (String[] rule : rules) {
+      replacements.add(new Replacement(rule[0], rule[1], componentScoped));
+    }
+    return Collections.unmodifiableList(replacements);
+  }
+
+  /*
+   * A single replace rule. Rules written as "component=regex" replace the whole value of that
+   * component when the regex matches it; every other component sees the rule text as a plain
+   * regex substitution.
+   */
+  static class Replacement {
+    private final Pattern pattern;
+    private final String component;
+    private final Pattern componentPattern;
+    private final String replacement;
+
+    Replacement(String rule, String replacement, boolean componentScoped) {
+      this.pattern = Pattern.compile(rule);
+      this.replacement = replacement;
+      Matcher m = COMPONENT_PREFIX.matcher(rule);
+      if (componentScoped && m.find()) {
+        this.component = m.group(1);
+        this.componentPattern = Pattern.compile(rule.substring(m.end()));
+      } else {
+        this.component = null;
+        this.componentPattern = null;
+      }
+    }
+
+    public boolean isScopedTo(String component) {
+      return this.component != null && this.component.equals(component);
+    }
+
+    public String getComponent() {
+      return component;
+    }
+
+    public String getRule() {
+      return pattern.pattern();
+    }
+
+    public Pattern getPattern() {
+      return pattern;
+    }
+
+    public Pattern getComponentPattern() {
+      return componentPattern;
+    }
+
+    public String getReplacement() {
+      return replacement;
+    }
+  }
+
+  /*
+   * The replace rules of a country, laid out per component. A rule written as "component=regex" is
+   * a whole-value replacement for that component only; every other component, as with plain rules,
+   * sees the full rule text as a regex substitution. Each component with scoped rules gets its own
+   * step list in rule order, and all other components share the list of substitutions.
+   */
+  static class ReplaceProgram {
+    private static final Step[] NO_STEPS = new Step[0];
+
+    private final Map<String, Step[]> scopedSteps;
+    private final Step[] globalSteps;
+
+    ReplaceProgram(List<Replacement> replacements) {
+      Map<String, Step[]> scopedSteps = new HashMap<>();
+      for (Replacement replacement : replacements) {
+        String component = replacement.getComponent();
+        if (component != null && !scopedSteps.containsKey(component)) {
+          scopedSteps.put(component, compile(replacements, component));
+        }
+      }
+      this.scopedSteps = scopedSteps.isEmpty() ? Collections.emptyMap() : scopedSteps;
+      this.globalSteps = replacements.isEmpty() ? NO_STEPS : compile(replacements, null);
+    }
+
+    private static Step[] compile(List<Replacement> replacements, String component) {
+      Step[] steps = new Step[replacements.size()];
+      for (int i = 0; i < steps.length; i++) {
+        Replacement replacement = replacements.get(i);
+        if (component != null && replacement.isScopedTo(component)) {
+          steps[i] = new Step(replacement.getComponentPattern(), replacement.getReplacement(), true, null);
+        } else {
+          // A scoped rule's full text only matches values containing its literal "component=" prefix.
+          String required = replacement.getComponent() != null ? replacement.getComponent() + "=" : null;
+          steps[i] = new Step(replacement.getPattern(), replacement.getReplacement(), false, required);
+        }
+      }
+      return steps;
+    }
+
+    public boolean isEmpty() {
+      return globalSteps.length == 0;
+    }
+
+    /*
+     * Runs the rules that apply to component over its value. Like the rules it replaces, this
+     * throws NullPointerException on a null value unless there are no rules at all.
+     */
+    public Object apply(String component, Object value) {
+      if (globalSteps.length == 0) {
+        return value;
+      }
+      Step[] steps = scopedSteps.isEmpty() ? globalSteps : scopedSteps.getOrDefault(component, globalSteps);
+      String text = value.toString();
+      Object result = value;
+      for (Step step : steps) {
+        if (step.required != null && !text.contains(step.required)) {
+          continue;
+        }
+        Matcher m = step.pattern.matcher(text);
+        if (step.wholeValue) {
+          if (m.find()) {
+            text = step.replacement;
+            result = text;
+          }
+        } else if (m.find()) {
+          text = m.replaceAll(step.replacement);
+          result = text;
+        }
+      }
+      return result;
+    }
+
+    private static final class Step {
+      private final Pattern pattern;
+      private final String replacement;
+      private final boolean wholeValue;
+      private final String required;
+
+      Step(Pattern pattern, String replacement, boolean wholeValue, String required) {
+        this.pattern = pattern;
+        this.replacement = replacement;
+        this.wholeValue = wholeValue;
+        this.required = required;
+      }
+    }
+  }
+}
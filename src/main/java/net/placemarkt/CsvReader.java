@@ -0,0 +1,83 @@
+package net.placemarkt;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Minimal RFC 4180 reader: comma-separated fields, optionally enclosed in double quotes, with ""
+ * as an escaped quote inside a quoted field. Quoted fields may span lines, and records end with
+ * \n or \r\n.
+ */
+class CsvReader {
+  private final Reader reader;
+  private final StringBuilder field = new StringBuilder();
+  private int peeked = -2;
+
+  CsvReader(Reader reader) {
+    this.reader = reader;
+  }
+
+  /*
+   * Returns the next record, or null at the end of the input.
+   */
+  List<String> readRecord() throws IOException {
+    int c = read();
+    if (c == -1) {
+      return null;
+    }
+
+    List<String> record = new ArrayList<>();
+    field.setLength(0);
+    boolean quoted = false;
+    while (true) {
+      if (quoted) {
+        if (c == -1) {
+          throw new IOException("Unterminated quoted CSV field");
+        }
+        if (c == '"') {
+          if (peek() == '"') {
+            read();
+            field.append('"');
+          } else {
+            quoted = false;
+          }
+        } else {
+          field.append((char) c);
+        }
+      } else if (c == '"' && field.length() == 0) {
+        quoted = true;
+      } else if (c == ',') {
+        record.add(field.toString());
+        field.setLength(0);
+      } else if (c == '\n' || c == -1) {
+        break;
+      } else if (c == '\r' && peek() == '\n') {
+        read();
+        break;
+      } else {
+        field.append((char) c);
+      }
+      c = read();
+    }
+    record.add(field.toString());
+    return record;
+  }
+
+  private int read() throws IOException {
+    if (peeked != -2) {
+      int c = peeked;
+      peeked = -2;
+      return c;
+    }
+    return reader.read();
+  }
+
+  private int peek() throws IOException {
+    if (peeked == -2) {
+      peeked = reader.read();
+    }
+    return peeked;
+  }
+}
@@ -0,0 +1,76 @@
+package net.placemarkt;
+
+import java.io.IOException;
+
+/**
+ * Outcome of formatting a single record: either the formatted address or the error that
+ * prevented formatting it, with a {@link Status} saying which kind of error it was.
+ */
+public final class FormatResult {
+
+  public enum Status {
+    /** The record was formatted. */
+    OK,
+    /** The record has no country code and no fallback was given. */
+    MISSING_COUNTRY_CODE,
+    /** The record's country code, or the fallback, is not a known country. */
+    INVALID_COUNTRY_CODE,
+    /** The input could not be parsed as JSON or YAML. */
+    MALFORMED_INPUT,
+    /** Formatting failed for any other reason. */
+    FAILED
+  }
+
+  private final Status status;
+  private final String address;
+  private final Throwable error;
+
+  private FormatResult(Status status, String address, Throwable error) {
+    this.status = status;
+    this.address = address;
+    this.error = error;
+  }
+
+  static FormatResult success(String address) {
+    return new FormatResult(Status.OK, address, null);
+  }
+
+  static FormatResult failure(Throwable error) {
+    Status status;
+    if (error instanceof InvalidAddressException) {
+      status = ((InvalidAddressException) error).getStatus();
+    } else if (error instanceof IOException) {
+      status = Status.MALFORMED_INPUT;
+    } else {
+      status = Status.FAILED;
+    }
+    return new FormatResult(status, null, error);
+  }
+
+  public boolean isSuccess() {
+    return status == Status.OK;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the formatted address, or null if formatting failed
+   */
+  public String getAddress() {
+    return address;
+  }
+
+  /**
+   * @return the error that prevented formatting, or null if formatting succeeded
+   */
+  public Throwable getError() {
+    return error;
+  }
+
+  @Override
+  public String toString() {
+    return isSuccess() ? address : "FormatResult{status=" + status + ", error=" + error + "}";
+  }
+}
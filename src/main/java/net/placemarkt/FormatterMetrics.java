@@ -0,0 +1,66 @@
+package net.placemarkt;
+
+/**
+ * Receives timings and cache events from an AddressFormatter. Every method does nothing by default,
+ * so an implementation only overrides what it records. Implementations are called from every
+ * thread that formats and must be thread-safe.
+ *
+ * <p>Stage timings are only taken when a formatter has metrics other than {@link #NOOP}, so the
+ * default formatter does not read the clock at all.
+ */
+public interface FormatterMetrics {
+
+  FormatterMetrics NOOP = new FormatterMetrics() {};
+
+  /**
+   * The steps of a format call, in the order they run.
+   */
+  enum Stage {
+    /** Reading JSON or YAML input into components. */
+    PARSE,
+    /** Converting keys to snake case and values to strings. */
+    NORMALIZE,
+    /** Resolving the country code and appending the country name. */
+    COUNTRY,
+    /** Applying component aliases and choosing the country's rules. */
+    ALIAS,
+    /** Applying replace rules, state and county codes, attention and postcode cleanup. */
+    CLEANUP,
+    /** Abbreviating components, when enabled. */
+    ABBREVIATE,
+    /** Executing the Mustache template. */
+    RENDER,
+    /** Cleaning up the rendered text and applying postformat_replace rules. */
+    POST_CLEANUP
+  }
+
+  default void stageCompleted(Stage stage, long nanos) {
+  }
+
+  /**
+   * Called once per formatted record with the country code whose rules it was formatted with.
+   */
+  default void countryFormatted(String countryCode) {
+  }
+
+  default void regexCacheHit() {
+  }
+
+  default void regexCacheMiss() {
+  }
+
+  default void templateCacheHit() {
+  }
+
+  default void templateCacheMiss() {
+  }
+
+  /**
+   * Called when a formatter built with a result cache returns a cached address.
+   */
+  default void resultCacheHit() {
+  }
+
+  default void resultCacheMiss() {
+  }
+}
@@ -0,0 +1,28 @@
+package net.placemarkt;
+
+/**
+ * Thrown when components cannot be formatted because their country code is missing or unknown.
+ *
+ * <p>These are expected in dirty input, so instances carry no stack trace and are shared: rejecting
+ * a record costs about as much as formatting one. Use {@link #getStatus()} to tell the cases apart,
+ * or {@link AddressFormatter#tryFormat(String)} to get a {@link FormatResult} without catching.
+ */
+public final class InvalidAddressException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  static final InvalidAddressException MISSING_COUNTRY_CODE = new InvalidAddressException(
+      FormatResult.Status.MISSING_COUNTRY_CODE, "No country code provided. Use fallbackCountryCode?");
+  static final InvalidAddressException INVALID_COUNTRY_CODE = new InvalidAddressException(
+      FormatResult.Status.INVALID_COUNTRY_CODE, "Invalid country code");
+
+  private final FormatResult.Status status;
+
+  private InvalidAddressException(FormatResult.Status status, String message) {
+    super(message, null, false, false);
+    this.status = status;
+  }
+
+  public FormatResult.Status getStatus() {
+    return status;
+  }
+}
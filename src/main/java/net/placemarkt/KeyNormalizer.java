@@ -0,0 +1,86 @@
+package net.placemarkt;
+
+import com.google.common.base.CaseFormat;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/*
+ * Maps input keys to component names the way CaseFormat.LOWER_CAMEL.to(LOWER_UNDERSCORE) does. The
+ * snake_case and camelCase spellings of every component in a ComponentSchema are converted up front,
+ * so common keys cost a single lookup that also yields their slot. Any other key is converted once
+ * and kept in a bounded memo, so unusual input cannot grow it without limit.
+ */
+class KeyNormalizer {
+  static final long DEFAULT_MEMO_SIZE = 1024;
+
+  private final ComponentSchema schema;
+  private final Map<String, Key> known;
+  private final Cache<String, Key> memo;
+
+  KeyNormalizer(ComponentSchema schema) {
+    this(schema, DEFAULT_MEMO_SIZE);
+  }
+
+  KeyNormalizer(ComponentSchema schema, long memoSize) {
+    this.schema = schema;
+    Map<String, Key> known = new HashMap<>();
+    for (int slot = 0; slot < schema.size(); slot++) {
+      String name = schema.name(slot);
+      known.computeIfAbsent(name, this::convert);
+      known.computeIfAbsent(CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, name), this::convert);
+    }
+    this.known = Collections.unmodifiableMap(known);
+    this.memo = CacheBuilder.newBuilder()
+        .maximumSize(memoSize)
+        .build();
+  }
+
+  public Key normalize(String field) {
+    Key key = known.get(field);
+    if (key != null) {
+      return key;
+    }
+    try {
+      return memo.get(field, () -> convert(field));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private Key convert(String field) {
+    String name = CaseFormat.LOWER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, field);
+    return new Key(name, schema.slotOf(name), name.equals(field));
+  }
+
+  /*
+   * A normalized key: the component name, its slot or -1 for unknown components, and whether the
+   * input key was already spelled that way.
+   */
+  static final class Key {
+    private final String name;
+    private final int slot;
+    private final boolean unchanged;
+
+    Key(String name, int slot, boolean unchanged) {
+      this.name = name;
+      this.slot = slot;
+      this.unchanged = unchanged;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getSlot() {
+      return slot;
+    }
+
+    public boolean isUnchanged() {
+      return unchanged;
+    }
+  }
+}
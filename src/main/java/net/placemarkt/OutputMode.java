@@ -0,0 +1,73 @@
+package net.placemarkt;
+
+/**
+ * How a formatted address is laid out. The layout is applied to the formatter's buffer after the
+ * final cleanup, in one extra pass over the address that creates no String; the default multi-line
+ * output only trims it.
+ */
+public final class OutputMode {
+
+  /** One component group per line, each ending with a newline. This is the default. */
+  public static final OutputMode MULTI_LINE = new OutputMode(0, ", ", true);
+
+  private final int maxLines;
+  private final String separator;
+  private final boolean newlineTerminated;
+
+  private OutputMode(int maxLines, String separator, boolean newlineTerminated) {
+    this.maxLines = maxLines;
+    this.separator = separator;
+    this.newlineTerminated = newlineTerminated;
+  }
+
+  /**
+   * Puts the whole address on one line, with separator between what would have been lines, such
+   * as ", ". The address does not end with a newline.
+   */
+  public static OutputMode singleLine(String separator) {
+    if (separator == null) {
+      throw new IllegalArgumentException("Separator must not be null");
+    }
+    return new OutputMode(1, separator, false);
+  }
+
+  /**
+   * Lays out the address on at most maxLines lines, as for a label. When the address has more, the
+   * last line holds the rest of them, separated by ", ".
+   */
+  public static OutputMode maxLines(int maxLines) {
+    return maxLines(maxLines, ", ");
+  }
+
+  /**
+   * Lays out the address on at most maxLines lines, as for a label. When the address has more, the
+   * last line holds the rest of them, separated by separator.
+   */
+  public static OutputMode maxLines(int maxLines, String separator) {
+    if (maxLines < 1) {
+      throw new IllegalArgumentException("An address needs at least one line");
+    }
+    if (separator == null) {
+      throw new IllegalArgumentException("Separator must not be null");
+    }
+    return new OutputMode(maxLines, separator, true);
+  }
+
+  /*
+   * Returns the number of lines an address may take, or 0 when there is no limit.
+   */
+  int getMaxLines() {
+    return maxLines;
+  }
+
+  /*
+   * Returns what replaces the line breaks past the limit.
+   */
+  String getSeparator() {
+    return separator;
+  }
+
+  boolean isNewlineTerminated() {
+    return newlineTerminated;
+  }
+}
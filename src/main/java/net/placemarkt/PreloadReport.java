@@ -0,0 +1,68 @@
+package net.placemarkt;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What AddressFormatter.preload compiled and how long it took.
+ */
+public final class PreloadReport {
+  private final Set<String> countryCodes;
+  private final Set<String> unknownCountryCodes;
+  private final int templateCount;
+  private final int abbreviationRuleCount;
+  private final long elapsedNanos;
+
+  PreloadReport(Set<String> countryCodes, Set<String> unknownCountryCodes, int templateCount,
+      int abbreviationRuleCount, long elapsedNanos) {
+    this.countryCodes = Collections.unmodifiableSet(countryCodes);
+    this.unknownCountryCodes = Collections.unmodifiableSet(unknownCountryCodes);
+    this.templateCount = templateCount;
+    this.abbreviationRuleCount = abbreviationRuleCount;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * @return the countries whose rules were preloaded, including "default" and any country they
+   *     format as through use_country
+   */
+  public Set<String> getCountryCodes() {
+    return countryCodes;
+  }
+
+  /**
+   * @return the requested country codes that have no rules. Records with these codes are rejected
+   *     as {@link FormatResult.Status#INVALID_COUNTRY_CODE}
+   */
+  public Set<String> getUnknownCountryCodes() {
+    return unknownCountryCodes;
+  }
+
+  /**
+   * @return the number of compiled address and fallback templates for the preloaded countries
+   */
+  public int getTemplateCount() {
+    return templateCount;
+  }
+
+  /**
+   * @return the number of compiled per-component abbreviation patterns for the preloaded countries
+   */
+  public int getAbbreviationRuleCount() {
+    return abbreviationRuleCount;
+  }
+
+  public long getElapsed(TimeUnit unit) {
+    return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public String toString() {
+    return "PreloadReport{countries=" + countryCodes.size()
+        + ", unknownCountries=" + unknownCountryCodes
+        + ", templates=" + templateCount
+        + ", abbreviationRules=" + abbreviationRuleCount
+        + ", elapsedMillis=" + getElapsed(TimeUnit.MILLISECONDS) + "}";
+  }
+}
@@ -1,29 +1,83 @@
 package net.placemarkt;
 
-import java.util.Map;
-import java.util.HashMap;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import java.util.regex.Pattern;
 
+/*
+ * Bounded, thread-safe cache of compiled patterns. Entries are keyed by both the expression and its
+ * compile flags, and the least recently used entries are evicted once maximumSize is reached.
+ */
 class RegexPatternCache {
-  private Map<String, Pattern> map = new HashMap<>();
+  static final long DEFAULT_MAXIMUM_SIZE = 2048;
+
+  private final Cache<Key, Pattern> cache;
+
+  RegexPatternCache() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  RegexPatternCache(long maximumSize) {
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build();
+  }
 
   public Pattern get(String key) {
-    if (map.containsKey(key)) {
-      return map.get(key);
-    } else {
-      Pattern newPattern = Pattern.compile(key);
-      map.put(key, newPattern);
-      return newPattern;
-    }
+    return get(key, 0);
   }
 
   public Pattern get(String key, int flags) {
-    if (map.containsKey(key)) {
-      return map.get(key);
+    return get(key, flags, FormatterMetrics.NOOP);
+  }
+
+  public Pattern get(String key, int flags, FormatterMetrics metrics) {
+    Key cacheKey = new Key(key, flags);
+    Pattern pattern = cache.getIfPresent(cacheKey);
+    if (pattern == null) {
+      metrics.regexCacheMiss();
+      pattern = Pattern.compile(key, flags);
+      cache.put(cacheKey, pattern);
     } else {
-      Pattern newPattern = Pattern.compile(key, flags);
-      map.put(key, newPattern);
-      return newPattern;
+      metrics.regexCacheHit();
+    }
+    return pattern;
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  private static final class Key {
+    private final String regex;
+    private final int flags;
+
+    Key(String regex, int flags) {
+      this.regex = regex;
+      this.flags = flags;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return flags == other.flags && regex.equals(other.regex);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * regex.hashCode() + flags;
     }
   }
 }
@@ -0,0 +1,98 @@
+package net.placemarkt;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Case-folded name -> code index over state_codes.yaml or county_codes.yaml, one table per country.
+ * Entries are either a plain name or an object holding a "default" name plus alternate-language
+ * names. Default and plain names take precedence over alternate names, and within each group the
+ * first code in file order wins. Each table is a StringTable, so a lookup is a binary search over
+ * the folded names.
+ */
+class RegionCodes {
+  private final Map<String, Map<String, String>> codesByCountry;
+
+  RegionCodes(Map<String, Map<String, String>> codesByCountry) {
+    this.codesByCountry = codesByCountry;
+  }
+
+  static RegionCodes fromJson(JsonNode data, StringPool strings) {
+    Map<String, Map<String, String>> codesByCountry = new HashMap<>();
+    Iterator<Map.Entry<String, JsonNode>> countries = data.fields();
+    while (countries.hasNext()) {
+      Map.Entry<String, JsonNode> country = countries.next();
+      codesByCountry.put(strings.intern(country.getKey()), StringTable.copyOf(index(country.getValue()), strings));
+    }
+    return new RegionCodes(Collections.unmodifiableMap(codesByCountry));
+  }
+
+  /*
+   * Returns the tables of just the given countries.
+   */
+  RegionCodes restrictTo(Set<String> countryCodes) {
+    Map<String, Map<String, String>> retained = new HashMap<>();
+    codesByCountry.forEach((countryCode, codes) -> {
+      if (countryCodes.contains(countryCode)) {
+        retained.put(countryCode, codes);
+      }
+    });
+    return new RegionCodes(Collections.unmodifiableMap(retained));
+  }
+
+  /*
+   * Returns the case-folded name -> code table of every country.
+   */
+  public Map<String, Map<String, String>> getCodesByCountry() {
+    return codesByCountry;
+  }
+
+  /*
+   * Returns the code for name in the given country, ignoring case, or null when there is none.
+   */
+  public String getCode(String countryCode, String name) {
+    Map<String, String> codes = codesByCountry.get(countryCode);
+    if (codes == null) {
+      return null;
+    }
+    return codes.get(fold(name));
+  }
+
+  private static Map<String, String> index(JsonNode regions) {
+    Map<String, String> codes = new HashMap<>();
+    Iterator<Map.Entry<String, JsonNode>> entries = regions.fields();
+    while (entries.hasNext()) {
+      Map.Entry<String, JsonNode> entry = entries.next();
+      JsonNode names = entry.getValue();
+      if (names.isObject()) {
+        if (names.has("default")) {
+          codes.putIfAbsent(fold(names.get("default").asText()), entry.getKey());
+        }
+      } else {
+        codes.putIfAbsent(fold(names.asText()), entry.getKey());
+      }
+    }
+
+    entries = regions.fields();
+    while (entries.hasNext()) {
+      Map.Entry<String, JsonNode> entry = entries.next();
+      Iterator<Map.Entry<String, JsonNode>> names = entry.getValue().fields();
+      while (names.hasNext()) {
+        Map.Entry<String, JsonNode> name = names.next();
+        if (!name.getKey().equals("default") && name.getValue().isTextual()) {
+          codes.putIfAbsent(fold(name.getValue().asText()), entry.getKey());
+        }
+      }
+    }
+    return codes;
+  }
+
+  private static String fold(String name) {
+    return name.toUpperCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,91 @@
+package net.placemarkt;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What AddressFormatter.reloadRules or restrictRules loaded, how long it took and roughly how much
+ * heap was in use while the previous and new rules were both loaded.
+ */
+public final class ReloadReport {
+  private final String source;
+  private final long version;
+  private final long previousVersion;
+  private final PreloadReport compiled;
+  private final long heapUsedBefore;
+  private final long heapUsedAfter;
+  private final long elapsedNanos;
+
+  ReloadReport(String source, long version, long previousVersion, PreloadReport compiled,
+      long heapUsedBefore, long heapUsedAfter, long elapsedNanos) {
+    this.source = source;
+    this.version = version;
+    this.previousVersion = previousVersion;
+    this.compiled = compiled;
+    this.heapUsedBefore = heapUsedBefore;
+    this.heapUsedAfter = heapUsedAfter;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * @return the directory or jar the rules were loaded from, or the version of the rules that
+   *     restrictRules took a subset of
+   */
+  public String getSource() {
+    return source;
+  }
+
+  /**
+   * @return the version of the new rules; every load in this JVM gets a higher one
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return the version of the rules that were replaced
+   */
+  public long getPreviousVersion() {
+    return previousVersion;
+  }
+
+  /**
+   * @return the countries, templates and abbreviation rules compiled before the swap
+   */
+  public PreloadReport getCompiled() {
+    return compiled;
+  }
+
+  /**
+   * @return heap bytes in use before loading started
+   */
+  public long getHeapUsedBefore() {
+    return heapUsedBefore;
+  }
+
+  /**
+   * @return heap bytes in use once the new rules were loaded and compiled, just before the swap,
+   *     when they coexist with the previous rules. The previous rules stay reachable until the
+   *     calls using them return. Both figures include garbage that has not been collected yet, and
+   *     a collection during the load can reclaim some of it, so the difference is only an
+   *     approximate size of the new rules: it can be larger or smaller, or even negative.
+   */
+  public long getHeapUsedAfter() {
+    return heapUsedAfter;
+  }
+
+  public long getElapsed(TimeUnit unit) {
+    return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public String toString() {
+    return "ReloadReport{source=" + source
+        + ", version=" + version
+        + ", previousVersion=" + previousVersion
+        + ", countries=" + compiled.getCountryCodes().size()
+        + ", templates=" + compiled.getTemplateCount()
+        + ", heapUsedBeforeBytes=" + heapUsedBefore
+        + ", heapUsedAfterBytes=" + heapUsedAfter
+        + ", elapsedMillis=" + getElapsed(TimeUnit.MILLISECONDS) + "}";
+  }
+}
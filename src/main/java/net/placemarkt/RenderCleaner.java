@@ -0,0 +1,590 @@
+package net.placemarkt;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Hand-written equivalent of the rendered-address cleanup rules. Each rule is a linear pass that
+ * copies between two reusable buffers, and the line/part dedupe only runs again after a rule has
+ * changed something. The rules run in this order:
+ *
+ *   ^-                 -> ""
+ *   [ \t]\n            -> "\n"
+ *   \n+                -> "\n"
+ *   ,\s*,              -> ", "
+ *   \n,                -> "\n"
+ *   [ \t]+,[ \t]+      -> ", "
+ *   \n[ \t]+           -> "\n"
+ *   [\},\s]+$          -> ""
+ *   [ \t][ \t]+        -> " "
+ *   ^[,\s]+            -> ""
+ *   ,\n                -> "\n"
+ *   ,+                 -> ","
+ *
+ * where \s is Unicode whitespace, and every rule is followed by a dedupe of repeated ", "-separated
+ * parts within a line and of repeated lines.
+ *
+ * A cleaner can also hold the address being formatted: the template is rendered into it through
+ * writer(), and every later step edits it in place, so the output only becomes a String if the
+ * caller asks for one.
+ */
+class RenderCleaner {
+
+  private interface Rule {
+    boolean apply(CharSequence in, StringBuilder out);
+  }
+
+  private static final Rule[] RULES = {
+      RenderCleaner::dashPrefix,
+      RenderCleaner::blankBeforeNewline,
+      RenderCleaner::newlineRuns,
+      RenderCleaner::emptyBetweenCommas,
+      RenderCleaner::commaAfterNewline,
+      RenderCleaner::blanksAroundComma,
+      RenderCleaner::blanksAfterNewline,
+      RenderCleaner::trailingPunctuation,
+      RenderCleaner::blankRuns,
+      RenderCleaner::leadingPunctuation,
+      RenderCleaner::commaBeforeNewline,
+      RenderCleaner::commaRuns,
+  };
+
+  private StringBuilder current = new StringBuilder(256);
+  private StringBuilder next = new StringBuilder(256);
+  private int[] parts = new int[16];
+  private int[] lines = new int[16];
+  private char[] chars;
+  private final Writer writer = new BufferWriter();
+
+  String clean(CharSequence rendered) {
+    current.setLength(0);
+    current.append(rendered);
+    cleanCurrent();
+    return current.toString();
+  }
+
+  /*
+   * Cleans the contents of buffer in place.
+   */
+  void clean(StringBuilder buffer) {
+    current.setLength(0);
+    current.append(buffer);
+    cleanCurrent();
+    buffer.setLength(0);
+    buffer.append(current);
+  }
+
+  /*
+   * Empties the address buffer and returns a Writer that appends to it.
+   */
+  Writer writer() {
+    current.setLength(0);
+    return writer;
+  }
+
+  /*
+   * Cleans the address buffer in place.
+   */
+  void clean() {
+    cleanCurrent();
+  }
+
+  /*
+   * Replaces every match of pattern in the address buffer. The buffer is only copied when there is
+   * a match.
+   */
+  void replaceAll(Pattern pattern, String replacement) {
+    Matcher m = pattern.matcher(current);
+    if (m.find()) {
+      String replaced = m.replaceAll(replacement);
+      current.setLength(0);
+      current.append(replaced);
+    }
+  }
+
+  /*
+   * Trims the address buffer as String.trim would and lays out its lines for mode. The line breaks
+   * past mode's limit become its separator, and the buffer is only copied when there are any.
+   */
+  void terminate(OutputMode mode) {
+    int end = current.length();
+    while (end > 0 && current.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    int start = 0;
+    while (start < end && current.charAt(start) <= ' ') {
+      start++;
+    }
+    current.setLength(end);
+    if (start > 0) {
+      current.delete(0, start);
+    }
+
+    int overflow = lineBreakAfter(mode.getMaxLines());
+    if (overflow >= 0) {
+      next.setLength(0);
+      next.append(current, 0, overflow);
+      for (int i = overflow; i < current.length(); i++) {
+        char c = current.charAt(i);
+        if (c == '\n') {
+          next.append(mode.getSeparator());
+        } else {
+          next.append(c);
+        }
+      }
+      swap();
+    }
+    if (mode.isNewlineTerminated()) {
+      current.append('\n');
+    }
+  }
+
+  /*
+   * Returns the index of the line break that ends line number lines, or -1 when the address has no
+   * more lines than that or lines is 0.
+   */
+  private int lineBreakAfter(int lines) {
+    if (lines == 0) {
+      return -1;
+    }
+    int line = 0;
+    for (int i = 0; i < current.length(); i++) {
+      if (current.charAt(i) == '\n' && ++line == lines) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  CharSequence getAddress() {
+    return current;
+  }
+
+  /*
+   * Appends the address buffer to out. Writers and CharBuffers would turn a CharSequence into a
+   * String first, so they are given the characters instead.
+   */
+  void appendTo(Appendable out) throws IOException {
+    int length = current.length();
+    if (out instanceof Writer || out instanceof CharBuffer) {
+      if (chars == null || chars.length < length) {
+        chars = new char[Math.max(length, 256)];
+      }
+      current.getChars(0, length, chars, 0);
+      if (out instanceof Writer) {
+        ((Writer) out).write(chars, 0, length);
+      } else {
+        ((CharBuffer) out).put(chars, 0, length);
+      }
+    } else {
+      out.append(current);
+    }
+  }
+
+  private void cleanCurrent() {
+    boolean deduped = false;
+    for (Rule rule : RULES) {
+      next.setLength(0);
+      if (rule.apply(current, next)) {
+        swap();
+        deduped = false;
+      }
+      if (!deduped) {
+        next.setLength(0);
+        deduped = dedupe(current, next);
+        swap();
+      }
+    }
+  }
+
+  private void swap() {
+    StringBuilder tmp = current;
+    current = next;
+    next = tmp;
+  }
+
+  /*
+   * Appends to whichever buffer is current when it is written to.
+   */
+  private class BufferWriter extends Writer {
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+      current.append(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+      current.append(str, off, off + len);
+    }
+
+    @Override
+    public void write(int c) {
+      current.append((char) c);
+    }
+
+    @Override
+    public Writer append(CharSequence csq) {
+      current.append(csq);
+      return this;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  static boolean isWhitespace(char c) {
+    switch (Character.getType(c)) {
+      case Character.SPACE_SEPARATOR:
+      case Character.LINE_SEPARATOR:
+      case Character.PARAGRAPH_SEPARATOR:
+        return true;
+      default:
+        return (c >= 0x9 && c <= 0xd) || c == 0x85;
+    }
+  }
+
+  private static boolean isBlank(char c) {
+    return c == ' ' || c == '\t';
+  }
+
+  private static boolean dashPrefix(CharSequence in, StringBuilder out) {
+    if (in.length() >= 2 && in.charAt(0) == '-' && in.charAt(1) == ' ') {
+      out.append(in, 2, in.length());
+      return true;
+    }
+    return false;
+  }
+
+  private static boolean blankBeforeNewline(CharSequence in, StringBuilder out) {
+    boolean changed = false;
+    int n = in.length();
+    for (int i = 0; i < n; i++) {
+      char c = in.charAt(i);
+      if (isBlank(c) && i + 1 < n && in.charAt(i + 1) == '\n') {
+        changed = true;
+      } else {
+        out.append(c);
+      }
+    }
+    return changed;
+  }
+
+  private static boolean newlineRuns(CharSequence in, StringBuilder out) {
+    boolean changed = false;
+    int n = in.length();
+    for (int i = 0; i < n; i++) {
+      char c = in.charAt(i);
+      if (c == '\n' && i > 0 && in.charAt(i - 1) == '\n') {
+        changed = true;
+      } else {
+        out.append(c);
+      }
+    }
+    return changed;
+  }
+
+  private static boolean emptyBetweenCommas(CharSequence in, StringBuilder out) {
+    boolean changed = false;
+    int n = in.length();
+    int i = 0;
+    while (i < n) {
+      char c = in.charAt(i);
+      if (c == ',') {
+        int j = i + 1;
+        while (j < n && isWhitespace(in.charAt(j))) {
+          j++;
+        }
+        if (j < n && in.charAt(j) == ',') {
+          out.append(", ");
+          i = j + 1;
+          changed = true;
+          continue;
+        }
+      }
+      out.append(c);
+      i++;
+    }
+    return changed;
+  }
+
+  private static boolean commaAfterNewline(CharSequence in, StringBuilder out) {
+    boolean changed = false;
+    int n = in.length();
+    int i = 0;
+    while (i < n) {
+      char c = in.charAt(i);
+      out.append(c);
+      if (c == '\n' && i + 1 < n && in.charAt(i + 1) == ',') {
+        i += 2;
+        changed = true;
+      } else {
+        i++;
+      }
+    }
+    return changed;
+  }
+
+  private static boolean blanksAroundComma(CharSequence in, StringBuilder out) {
+    boolean changed = false;
+    int n = in.length();
+    int i = 0;
+    while (i < n) {
+      if (!isBlank(in.charAt(i))) {
+        out.append(in.charAt(i));
+        i++;
+        continue;
+      }
+      int j = i;
+      while (j < n && isBlank(in.charAt(j))) {
+        j++;
+      }
+      if (j + 1 < n && in.charAt(j) == ',' && isBlank(in.charAt(j + 1))) {
+        int k = j + 1;
+        while (k < n && isBlank(in.charAt(k))) {
+          k++;
+        }
+        out.append(", ");
+        i = k;
+        changed = true;
+      } else {
+        out.append(in, i, j);
+        i = j;
+      }
+    }
+    return changed;
+  }
+
+  private static boolean blanksAfterNewline(CharSequence in, StringBuilder out) {
+    boolean changed = false;
+    int n = in.length();
+    int i = 0;
+    while (i < n) {
+      char c = in.charAt(i);
+      out.append(c);
+      i++;
+      if (c == '\n') {
+        while (i < n && isBlank(in.charAt(i))) {
+          i++;
+          changed = true;
+        }
+      }
+    }
+    return changed;
+  }
+
+  private static boolean trailingPunctuation(CharSequence in, StringBuilder out) {
+    int end = in.length();
+    while (end > 0) {
+      char c = in.charAt(end - 1);
+      if (c != '}' && c != ',' && !isWhitespace(c)) {
+        break;
+      }
+      end--;
+    }
+    if (end == in.length()) {
+      return false;
+    }
+    out.append(in, 0, end);
+    return true;
+  }
+
+  private static boolean blankRuns(CharSequence in, StringBuilder out) {
+    boolean changed = false;
+    int n = in.length();
+    int i = 0;
+    while (i < n) {
+      char c = in.charAt(i);
+      if (isBlank(c) && i + 1 < n && isBlank(in.charAt(i + 1))) {
+        int j = i + 2;
+        while (j < n && isBlank(in.charAt(j))) {
+          j++;
+        }
+        out.append(' ');
+        i = j;
+        changed = true;
+      } else {
+        out.append(c);
+        i++;
+      }
+    }
+    return changed;
+  }
+
+  private static boolean leadingPunctuation(CharSequence in, StringBuilder out) {
+    int n = in.length();
+    int start = 0;
+    while (start < n) {
+      char c = in.charAt(start);
+      if (c != ',' && !isWhitespace(c)) {
+        break;
+      }
+      start++;
+    }
+    if (start == 0) {
+      return false;
+    }
+    out.append(in, start, n);
+    return true;
+  }
+
+  private static boolean commaBeforeNewline(CharSequence in, StringBuilder out) {
+    boolean changed = false;
+    int n = in.length();
+    for (int i = 0; i < n; i++) {
+      char c = in.charAt(i);
+      if (c == ',' && i + 1 < n && in.charAt(i + 1) == '\n') {
+        changed = true;
+      } else {
+        out.append(c);
+      }
+    }
+    return changed;
+  }
+
+  private static boolean commaRuns(CharSequence in, StringBuilder out) {
+    boolean changed = false;
+    int n = in.length();
+    for (int i = 0; i < n; i++) {
+      char c = in.charAt(i);
+      if (c == ',' && i > 0 && in.charAt(i - 1) == ',') {
+        changed = true;
+      } else {
+        out.append(c);
+      }
+    }
+    return changed;
+  }
+
+  /*
+   * Splits on newlines, then trims each line, splits it on ", ", trims the parts and drops repeated
+   * parts, and finally drops repeated lines. Trailing empty lines are discarded, as String.split
+   * would. Returns true when deduping the output again would leave it unchanged, which is the case
+   * unless a line ends in a dropped part or the last line came out empty.
+   */
+  private boolean dedupe(CharSequence in, StringBuilder out) {
+    int n = in.length();
+    int end = n;
+    while (end > 0 && in.charAt(end - 1) == '\n') {
+      end--;
+    }
+
+    boolean stable = true;
+    int lineCount = 0;
+    int start = 0;
+    while (start <= end && end > 0) {
+      int newline = start;
+      while (newline < end && in.charAt(newline) != '\n') {
+        newline++;
+      }
+
+      int lineStart = out.length();
+      if (lineCount > 0) {
+        out.append('\n');
+        lineStart++;
+      }
+      appendDedupedLine(in, start, newline, out);
+      int length = out.length();
+      if (length - lineStart >= 2 && out.charAt(length - 2) == ',' && out.charAt(length - 1) == ' ') {
+        stable = false;
+      }
+
+      if (isRepeatedLine(out, lineStart, lineCount)) {
+        out.setLength(lineCount > 0 ? lineStart - 1 : lineStart);
+      } else {
+        lines = ensureCapacity(lines, 2 * lineCount + 2);
+        lines[2 * lineCount] = lineStart;
+        lines[2 * lineCount + 1] = out.length();
+        lineCount++;
+      }
+      start = newline + 1;
+    }
+    return stable && (out.length() == 0 || out.charAt(out.length() - 1) != '\n');
+  }
+
+  private void appendDedupedLine(CharSequence in, int start, int end, StringBuilder out) {
+    while (start < end && in.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && in.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    if (start == end) {
+      return;
+    }
+
+    int partCount = 0;
+    int partStart = start;
+    while (partStart <= end) {
+      int separator = partStart;
+      while (separator + 1 < end && !(in.charAt(separator) == ',' && in.charAt(separator + 1) == ' ')) {
+        separator++;
+      }
+      int partEnd = separator + 1 < end ? separator : end;
+
+      int s = partStart;
+      int e = partEnd;
+      while (s < e && in.charAt(s) <= ' ') {
+        s++;
+      }
+      while (e > s && in.charAt(e - 1) <= ' ') {
+        e--;
+      }
+
+      if (!isRepeatedPart(in, s, e, partCount)) {
+        parts = ensureCapacity(parts, 2 * partCount + 2);
+        parts[2 * partCount] = s;
+        parts[2 * partCount + 1] = e;
+        if (partCount > 0) {
+          out.append(", ");
+        }
+        out.append(in, s, e);
+        partCount++;
+      }
+      partStart = partEnd + 2;
+    }
+  }
+
+  private boolean isRepeatedPart(CharSequence in, int start, int end, int partCount) {
+    for (int p = 0; p < partCount; p++) {
+      if (regionEquals(in, parts[2 * p], parts[2 * p + 1], in, start, end)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isRepeatedLine(StringBuilder out, int start, int lineCount) {
+    int end = out.length();
+    for (int l = 0; l < lineCount; l++) {
+      if (regionEquals(out, lines[2 * l], lines[2 * l + 1], out, start, end)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean regionEquals(CharSequence a, int aStart, int aEnd, CharSequence b, int bStart, int bEnd) {
+    if (aEnd - aStart != bEnd - bStart) {
+      return false;
+    }
+    for (int i = 0; i < aEnd - aStart; i++) {
+      if (a.charAt(aStart + i) != b.charAt(bStart + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int[] ensureCapacity(int[] array, int size) {
+    return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+  }
+}
@@ -0,0 +1,116 @@
+package net.placemarkt;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Bounded, thread-safe cache of formatted addresses, keyed on the normalized components, the options
+ * that affect the output and the version of the rules that formatted them, so results from replaced
+ * rules are never served. Only successful results are stored, so inputs that fail keep failing the
+ * same way on every call.
+ */
+class ResultCache {
+  private final Cache<Key, String> cache;
+
+  ResultCache(long maximumSize, long expireAfterWriteNanos) {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats();
+    if (expireAfterWriteNanos > 0) {
+      builder.expireAfterWrite(expireAfterWriteNanos, TimeUnit.NANOSECONDS);
+    }
+    this.cache = builder.build();
+  }
+
+  public String get(Key key) {
+    return cache.getIfPresent(key);
+  }
+
+  public void put(Key key, String address) {
+    cache.put(key, address);
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /*
+   * Returns the key for a normalized component map, or null when the map cannot be keyed because it
+   * has a null key.
+   */
+  static Key key(long rulesVersion, boolean abbreviate, boolean appendCountry, String fallbackCountryCode,
+      Map<String, Object> components) {
+    String[] fields = new String[components.size()];
+    int i = 0;
+    for (String field : components.keySet()) {
+      if (field == null) {
+        return null;
+      }
+      fields[i++] = field;
+    }
+    Arrays.sort(fields);
+
+    String[] entries = new String[2 * fields.length];
+    for (i = 0; i < fields.length; i++) {
+      Object value = components.get(fields[i]);
+      entries[2 * i] = fields[i];
+      entries[2 * i + 1] = value != null ? value.toString() : null;
+    }
+    return new Key(rulesVersion, abbreviate, appendCountry, fallbackCountryCode, entries);
+  }
+
+  static final class Key {
+    private final long rulesVersion;
+    private final boolean abbreviate;
+    private final boolean appendCountry;
+    private final String fallbackCountryCode;
+    private final String[] entries;
+    private final int hash;
+
+    private Key(long rulesVersion, boolean abbreviate, boolean appendCountry, String fallbackCountryCode,
+        String[] entries) {
+      this.rulesVersion = rulesVersion;
+      this.abbreviate = abbreviate;
+      this.appendCountry = appendCountry;
+      this.fallbackCountryCode = fallbackCountryCode;
+      this.entries = entries;
+      int h = Arrays.hashCode(entries);
+      h = 31 * h + (fallbackCountryCode != null ? fallbackCountryCode.hashCode() : 0);
+      h = 31 * h + Long.hashCode(rulesVersion);
+      h = 31 * h + (abbreviate ? 1 : 0);
+      this.hash = 31 * h + (appendCountry ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hash == other.hash
+          && rulesVersion == other.rulesVersion
+          && abbreviate == other.abbreviate
+          && appendCountry == other.appendCountry
+          && (fallbackCountryCode == null
+              ? other.fallbackCountryCode == null
+              : fallbackCountryCode.equals(other.fallbackCountryCode))
+          && Arrays.equals(entries, other.entries);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
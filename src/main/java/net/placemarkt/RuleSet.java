@@ -0,0 +1,265 @@
+package net.placemarkt;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * The resolved rule model the formatter runs on: country rules with their templates resolved,
+ * country names, aliases, state and county code indexes, and abbreviation tables. It is built either
+ * from the transpiled JSON resources or from the binary snapshot written by RuleSnapshot, and both
+ * produce the same model. Each load shares one copy of every repeated string through a StringPool,
+ * and country names, region codes and abbreviations are held in StringTables rather than
+ * LinkedHashMaps.
+ *
+ * A RuleSet is immutable apart from its caches of compiled templates and abbreviation rules, and
+ * each one gets a new version number. The formatter takes the current one once per call, so a call
+ * never mixes rules from two versions even when they are replaced while it runs.
+ */
+class RuleSet {
+  private static final AtomicLong VERSIONS = new AtomicLong();
+  // Codes the formatter itself switches to: UK is accepted for GB, and NL addresses in Curaçao,
+  // Sint Maarten and Aruba are formatted as those countries.
+  private static final Map<String, List<String>> IMPLIED_COUNTRIES = ImmutableMap.of(
+      "GB", ImmutableList.of("UK"),
+      "NL", ImmutableList.of("CW", "SX", "AW"));
+
+  private final long version;
+  private final Map<String, CountryRules> countryRules;
+  private final Map<String, String> countryNames;
+  private final Map<String, String> aliasNames;
+  private final Set<String> knownComponents;
+  private final ComponentSchema componentSchema;
+  private final RegionCodes stateCodes;
+  private final RegionCodes countyCodes;
+  private final Map<String, List<String>> countryLanguages;
+  private final Map<String, Map<String, Map<String, String>>> abbreviations;
+  private final ConcurrentMap<String, AbbreviationRules> abbreviationRules = new ConcurrentHashMap<>();
+  private final TemplateRegistry templates = new TemplateRegistry();
+
+  RuleSet(Map<String, CountryRules> countryRules, Map<String, String> countryNames,
+      Map<String, String> aliasNames, RegionCodes stateCodes, RegionCodes countyCodes,
+      Map<String, List<String>> countryLanguages,
+      Map<String, Map<String, Map<String, String>>> abbreviations) {
+    this.version = VERSIONS.incrementAndGet();
+    this.countryRules = Collections.unmodifiableMap(countryRules);
+    this.countryNames = Collections.unmodifiableMap(countryNames);
+    this.aliasNames = Collections.unmodifiableMap(aliasNames);
+    this.knownComponents = Collections.unmodifiableSet(new HashSet<>(aliasNames.keySet()));
+    this.componentSchema = new ComponentSchema(aliasNames);
+    this.stateCodes = stateCodes;
+    this.countyCodes = countyCodes;
+    this.countryLanguages = Collections.unmodifiableMap(countryLanguages);
+    this.abbreviations = Collections.unmodifiableMap(abbreviations);
+  }
+
+  static RuleSet fromJson(JsonNode worldwide, JsonNode countryNames, JsonNode aliases,
+      JsonNode abbreviations, JsonNode country2Lang, JsonNode countyCodes, JsonNode stateCodes) {
+    Map<String, CountryRules> countryRules = new LinkedHashMap<>();
+    Iterator<Map.Entry<String, JsonNode>> entries = worldwide.fields();
+    while (entries.hasNext()) {
+      Map.Entry<String, JsonNode> entry = entries.next();
+      if (entry.getValue().isObject()) {
+        countryRules.put(entry.getKey(), CountryRules.fromJson(entry.getKey(), entry.getValue(), worldwide));
+      }
+    }
+
+    StringPool strings = new StringPool();
+    Map<String, String> names = new LinkedHashMap<>();
+    countryNames.fields().forEachRemaining(entry -> names.put(entry.getKey(), entry.getValue().asText()));
+
+    Map<String, String> aliasNames = new LinkedHashMap<>();
+    for (JsonNode pair : aliases) {
+      aliasNames.putIfAbsent(pair.get("alias").asText(), pair.get("name").asText());
+    }
+
+    Map<String, List<String>> countryLanguages = new LinkedHashMap<>();
+    country2Lang.fields().forEachRemaining(entry -> {
+      List<String> languages = new ArrayList<>();
+      entry.getValue().forEach(language -> languages.add(strings.intern(language.textValue())));
+      countryLanguages.put(strings.intern(entry.getKey()), Collections.unmodifiableList(languages));
+    });
+
+    Map<String, Map<String, Map<String, String>>> abbreviationsByLanguage = new LinkedHashMap<>();
+    abbreviations.fields().forEachRemaining(language -> {
+      Map<String, Map<String, String>> byComponent = new LinkedHashMap<>();
+      for (JsonNode abbreviation : language.getValue()) {
+        if (!abbreviation.has("component")) {
+          continue;
+        }
+        Map<String, String> replacements = byComponent
+            .computeIfAbsent(abbreviation.get("component").asText(), k -> new LinkedHashMap<>());
+        for (JsonNode replacement : abbreviation.get("replacements")) {
+          String src = replacement.get("src").asText();
+          if (!src.isEmpty()) {
+            replacements.putIfAbsent(src, replacement.get("dest").asText());
+          }
+        }
+      }
+      byComponent.replaceAll((component, replacements) -> StringTable.copyOf(replacements, strings));
+      abbreviationsByLanguage.put(strings.intern(language.getKey()), byComponent);
+    });
+
+    return new RuleSet(countryRules, StringTable.copyOf(names, strings), aliasNames,
+        RegionCodes.fromJson(stateCodes, strings), RegionCodes.fromJson(countyCodes, strings),
+        countryLanguages, abbreviationsByLanguage);
+  }
+
+  /*
+   * Returns new rules holding only the given countries, "default", every country they reach through
+   * use_country, and the country names, state and county codes, languages and abbreviations of
+   * those countries. Templates are resolved when a country is loaded, so countries sharing an
+   * address_template alias need nothing more. Codes these rules do not know are ignored, and the
+   * rest are matched ignoring case.
+   */
+  RuleSet restrictTo(Collection<String> countryCodes) {
+    Deque<String> pending = new ArrayDeque<>();
+    pending.add("default");
+    for (String countryCode : countryCodes) {
+      String code = countryCode.toUpperCase(Locale.ROOT);
+      pending.add(code);
+      pending.addAll(IMPLIED_COUNTRIES.getOrDefault(code, Collections.emptyList()));
+    }
+    Set<String> retained = new HashSet<>();
+    while (!pending.isEmpty()) {
+      String code = pending.poll();
+      CountryRules country = countryRules.get(code);
+      if (country != null && retained.add(code) && country.getUseCountry() != null) {
+        pending.add(country.getUseCountry());
+      }
+    }
+
+    Map<String, CountryRules> retainedRules = new LinkedHashMap<>();
+    countryRules.forEach((code, country) -> {
+      if (retained.contains(code)) {
+        retainedRules.put(code, country);
+      }
+    });
+    Map<String, String> retainedNames = new LinkedHashMap<>();
+    countryNames.forEach((code, name) -> {
+      if (retained.contains(code)) {
+        retainedNames.put(code, name);
+      }
+    });
+    Map<String, List<String>> retainedLanguages = new LinkedHashMap<>();
+    Set<String> languages = new HashSet<>();
+    countryLanguages.forEach((code, countryLanguages) -> {
+      if (retained.contains(code)) {
+        retainedLanguages.put(code, countryLanguages);
+        languages.addAll(countryLanguages);
+      }
+    });
+    Map<String, Map<String, Map<String, String>>> retainedAbbreviations = new LinkedHashMap<>();
+    abbreviations.forEach((language, byComponent) -> {
+      if (languages.contains(language)) {
+        retainedAbbreviations.put(language, byComponent);
+      }
+    });
+
+    return new RuleSet(retainedRules, StringTable.copyOf(retainedNames), aliasNames, stateCodes.restrictTo(retained),
+        countyCodes.restrictTo(retained), retainedLanguages, retainedAbbreviations);
+  }
+
+  /*
+   * Returns the compiled rules for a worldwide.yaml entry (a country code or "default"), or null
+   * when there is no such entry.
+   */
+  public CountryRules getCountryRules(String countryCode) {
+    return countryRules.get(countryCode);
+  }
+
+  public String getCountryName(String countryCode) {
+    return countryNames.get(countryCode);
+  }
+
+  public String getCanonicalName(String alias) {
+    return aliasNames.get(alias);
+  }
+
+  public boolean isKnownComponent(String key) {
+    return knownComponents.contains(key);
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  /*
+   * Returns the compiled templates of these rules.
+   */
+  public TemplateRegistry getTemplateRegistry() {
+    return templates;
+  }
+
+  public ComponentSchema getComponentSchema() {
+    return componentSchema;
+  }
+
+  public String getStateCode(String countryCode, String state) {
+    return stateCodes.getCode(countryCode, state);
+  }
+
+  public String getCountyCode(String countryCode, String county) {
+    return countyCodes.getCode(countryCode, county);
+  }
+
+  /*
+   * Returns the abbreviation rules for a country, merging and compiling them the first time the
+   * country is asked for. They are compiled outside the map, rather than in computeIfAbsent, so a
+   * virtual thread doing it is not pinned by the map's bin lock; racing threads may both compile.
+   */
+  public AbbreviationRules getAbbreviationRules(String countryCode) {
+    AbbreviationRules rules = abbreviationRules.get(countryCode);
+    if (rules == null) {
+      rules = AbbreviationRules.merge(countryLanguages.get(countryCode), abbreviations);
+      AbbreviationRules existing = abbreviationRules.putIfAbsent(countryCode, rules);
+      if (existing != null) {
+        rules = existing;
+      }
+    }
+    return rules;
+  }
+
+  Map<String, CountryRules> getCountryRules() {
+    return countryRules;
+  }
+
+  Map<String, String> getCountryNames() {
+    return countryNames;
+  }
+
+  Map<String, String> getAliasNames() {
+    return aliasNames;
+  }
+
+  RegionCodes getStateCodes() {
+    return stateCodes;
+  }
+
+  RegionCodes getCountyCodes() {
+    return countyCodes;
+  }
+
+  Map<String, List<String>> getCountryLanguages() {
+    return countryLanguages;
+  }
+
+  Map<String, Map<String, Map<String, String>>> getAbbreviations() {
+    return abbreviations;
+  }
+}
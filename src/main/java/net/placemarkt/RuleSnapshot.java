@@ -0,0 +1,279 @@
+package net.placemarkt;
+
+import com.google.common.io.ByteStreams;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Binary form of a RuleSet, written by the Transpiler next to the JSON resources so the runtime can
+ * start without parsing JSON. The layout is a magic number and format version followed by these
+ * sections, in order:
+ *
+ *   country rules       code, templates, use/change country, add_component, replace and
+ *                       postformat_replace pairs
+ *   country names       code -> name
+ *   aliases             alias -> canonical name
+ *   state codes         country -> case-folded name -> code
+ *   county codes        country -> case-folded name -> code
+ *   country languages   country -> languages
+ *   abbreviations       language -> component -> source -> abbreviation
+ *
+ * Counts and string lengths are big-endian ints, strings are UTF-8 and a length of -1 is null.
+ * Bump VERSION whenever the layout changes; a snapshot with another version is rejected and the
+ * caller falls back to the JSON resources. So is a truncated or corrupt snapshot: every failure to
+ * read one surfaces as an IOException, never as an unchecked exception.
+ */
+class RuleSnapshot {
+  static final String RESOURCE = "rules.bin";
+  static final int MAGIC = 0x504d4146;
+  static final int VERSION = 1;
+
+  private RuleSnapshot() {
+  }
+
+  static void write(RuleSet rules, OutputStream os) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+
+    out.writeInt(rules.getCountryRules().size());
+    for (CountryRules country : rules.getCountryRules().values()) {
+      writeString(out, country.getCountryCode());
+      writeString(out, country.getAddressTemplate());
+      writeString(out, country.getFallbackTemplate());
+      writeString(out, country.getUseCountry());
+      writeString(out, country.getChangeCountry());
+      writeString(out, country.getAddComponentKey());
+      writeString(out, country.getAddComponentValue());
+      writeReplacements(out, country.getReplace());
+      writeReplacements(out, country.getPostformatReplace());
+    }
+
+    writeStringMap(out, rules.getCountryNames());
+    writeStringMap(out, rules.getAliasNames());
+    writeNestedMap(out, rules.getStateCodes().getCodesByCountry());
+    writeNestedMap(out, rules.getCountyCodes().getCodesByCountry());
+
+    out.writeInt(rules.getCountryLanguages().size());
+    for (Map.Entry<String, List<String>> entry : rules.getCountryLanguages().entrySet()) {
+      writeString(out, entry.getKey());
+      out.writeInt(entry.getValue().size());
+      for (String language : entry.getValue()) {
+        writeString(out, language);
+      }
+    }
+
+    out.writeInt(rules.getAbbreviations().size());
+    for (Map.Entry<String, Map<String, Map<String, String>>> entry : rules.getAbbreviations().entrySet()) {
+      writeString(out, entry.getKey());
+      writeNestedMap(out, entry.getValue());
+    }
+    out.flush();
+  }
+
+  /*
+   * Loads the snapshot resource from the context class loader, memory-mapping it when it is a plain
+   * file. Returns null when there is no snapshot on the classpath.
+   */
+  static RuleSet load() throws IOException {
+    ClassLoader cl = Thread.currentThread().getContextClassLoader();
+    URL url = cl.getResource(RESOURCE);
+    if (url == null) {
+      return null;
+    }
+    if ("file".equals(url.getProtocol())) {
+      try {
+        return read(Paths.get(url.toURI()));
+      } catch (URISyntaxException e) {
+        throw new IOException(e);
+      }
+    }
+    try (InputStream is = url.openStream()) {
+      return read(ByteBuffer.wrap(ByteStreams.toByteArray(is)));
+    }
+  }
+
+  /*
+   * Reads a snapshot file, memory-mapping it when it is on the default file system.
+   */
+  static RuleSet read(Path path) throws IOException {
+    if (path.getFileSystem() != FileSystems.getDefault()) {
+      return read(ByteBuffer.wrap(Files.readAllBytes(path)));
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  static RuleSet read(ByteBuffer buffer) throws IOException {
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("Not a rule snapshot");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported rule snapshot version " + version);
+      }
+
+      StringPool strings = new StringPool();
+      int countryCount = readCount(buffer);
+      Map<String, CountryRules> countryRules = new LinkedHashMap<>();
+      for (int i = 0; i < countryCount; i++) {
+        String code = readString(buffer, strings);
+        countryRules.put(code, new CountryRules(code, readString(buffer, strings), readString(buffer, strings),
+            readString(buffer, strings), readString(buffer, strings), readString(buffer, strings), readString(buffer, strings),
+            readReplacements(buffer, strings), readReplacements(buffer, strings)));
+      }
+
+      Map<String, String> countryNames = StringTable.copyOf(readStringMap(buffer, strings));
+      Map<String, String> aliasNames = readStringMap(buffer, strings);
+      RegionCodes stateCodes = new RegionCodes(Collections.unmodifiableMap(readNestedMap(buffer, strings)));
+      RegionCodes countyCodes = new RegionCodes(Collections.unmodifiableMap(readNestedMap(buffer, strings)));
+
+      int countryLanguageCount = readCount(buffer);
+      Map<String, List<String>> countryLanguages = new LinkedHashMap<>();
+      for (int i = 0; i < countryLanguageCount; i++) {
+        String code = readString(buffer, strings);
+        int languageCount = readCount(buffer);
+        List<String> languages = new ArrayList<>(languageCount);
+        for (int j = 0; j < languageCount; j++) {
+          languages.add(readString(buffer, strings));
+        }
+        countryLanguages.put(code, Collections.unmodifiableList(languages));
+      }
+
+      int languageCount = readCount(buffer);
+      Map<String, Map<String, Map<String, String>>> abbreviations = new LinkedHashMap<>();
+      for (int i = 0; i < languageCount; i++) {
+        abbreviations.put(readString(buffer, strings), readNestedMap(buffer, strings));
+      }
+
+      return new RuleSet(countryRules, countryNames, aliasNames, stateCodes, countyCodes,
+          countryLanguages, abbreviations);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated rule snapshot", e);
+    } catch (RuntimeException e) {
+      throw new IOException("Corrupt rule snapshot", e);
+    }
+  }
+
+  /*
+   * Reads a count, rejecting one that is negative or larger than the rest of the buffer could hold,
+   * since every entry takes at least one four-byte length.
+   */
+  private static int readCount(ByteBuffer buffer) throws IOException {
+    int count = buffer.getInt();
+    if (count < 0 || count > buffer.remaining() / 4) {
+      throw new IOException("Corrupt rule snapshot");
+    }
+    return count;
+  }
+
+  private static void writeReplacements(DataOutputStream out, List<CountryRules.Replacement> replacements)
+      throws IOException {
+    out.writeInt(replacements.size());
+    for (CountryRules.Replacement replacement : replacements) {
+      writeString(out, replacement.getRule());
+      writeString(out, replacement.getReplacement());
+    }
+  }
+
+  private static List<String[]> readReplacements(ByteBuffer buffer, StringPool strings)
+      throws IOException {
+    int count = readCount(buffer);
+    List<String[]> pairs = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      pairs.add(new String[]{ readString(buffer, strings), readString(buffer, strings) });
+    }
+    return pairs;
+  }
+
+  private static void writeNestedMap(DataOutputStream out, Map<String, Map<String, String>> map)
+      throws IOException {
+    out.writeInt(map.size());
+    for (Map.Entry<String, Map<String, String>> entry : map.entrySet()) {
+      writeString(out, entry.getKey());
+      writeStringMap(out, entry.getValue());
+    }
+  }
+
+  private static Map<String, Map<String, String>> readNestedMap(ByteBuffer buffer, StringPool strings)
+      throws IOException {
+    int count = readCount(buffer);
+    Map<String, Map<String, String>> map = new LinkedHashMap<>();
+    for (int i = 0; i < count; i++) {
+      map.put(readString(buffer, strings), StringTable.copyOf(readStringMap(buffer, strings)));
+    }
+    return map;
+  }
+
+  private static void writeStringMap(DataOutputStream out, Map<String, String> map) throws IOException {
+    out.writeInt(map.size());
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      writeString(out, entry.getKey());
+      writeString(out, entry.getValue());
+    }
+  }
+
+  private static Map<String, String> readStringMap(ByteBuffer buffer, StringPool strings)
+      throws IOException {
+    int count = readCount(buffer);
+    Map<String, String> map = new LinkedHashMap<>();
+    for (int i = 0; i < count; i++) {
+      map.put(readString(buffer, strings), readString(buffer, strings));
+    }
+    return map;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer, StringPool strings) throws IOException {
+    int length = buffer.getInt();
+    if (length == -1) {
+      return null;
+    }
+    if (length < 0) {
+      throw new IOException("Corrupt rule snapshot");
+    }
+    if (length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    String value;
+    if (buffer.hasArray()) {
+      value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      value = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return strings.intern(value);
+  }
+}
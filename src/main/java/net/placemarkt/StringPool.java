@@ -0,0 +1,20 @@
+package net.placemarkt;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Deduplicates the strings read by one rule load, so that a code, name, abbreviation or template
+ * appearing in many places is held once. The pool itself is only kept while loading.
+ */
+class StringPool {
+  private final Map<String, String> strings = new HashMap<>();
+
+  public String intern(String value) {
+    if (value == null) {
+      return null;
+    }
+    String existing = strings.putIfAbsent(value, value);
+    return existing != null ? existing : value;
+  }
+}
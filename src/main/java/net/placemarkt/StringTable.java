@@ -0,0 +1,134 @@
+package net.placemarkt;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/*
+ * Immutable String -> String map for rule tables, held as two arrays sorted by key, so a lookup is a
+ * binary search over contiguous references instead of a walk through hash buckets and entry
+ * objects. A third array keeps the order the table was built in, which iteration follows, so it can
+ * stand in for the LinkedHashMaps it replaces. Null keys and values are not supported.
+ */
+final class StringTable extends AbstractMap<String, String> {
+  private static final StringTable EMPTY = new StringTable(new String[0], new String[0], new int[0]);
+
+  private final String[] keys;
+  private final String[] values;
+  private final int[] order;
+
+  private StringTable(String[] keys, String[] values, int[] order) {
+    this.keys = keys;
+    this.values = values;
+    this.order = order;
+  }
+
+  static StringTable copyOf(Map<String, String> map) {
+    return copyOf(map, null);
+  }
+
+  /*
+   * Copies map, keeping its iteration order and taking every key and value from pool when one is
+   * given.
+   */
+  static StringTable copyOf(Map<String, String> map, StringPool pool) {
+    if (map instanceof StringTable && pool == null) {
+      return (StringTable) map;
+    }
+    if (map.isEmpty()) {
+      return EMPTY;
+    }
+    int size = map.size();
+    String[] insertionKeys = new String[size];
+    String[] insertionValues = new String[size];
+    int i = 0;
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      insertionKeys[i] = pool != null ? pool.intern(entry.getKey()) : entry.getKey();
+      insertionValues[i] = pool != null ? pool.intern(entry.getValue()) : entry.getValue();
+      i++;
+    }
+
+    Integer[] sorted = new Integer[size];
+    for (i = 0; i < size; i++) {
+      sorted[i] = i;
+    }
+    Arrays.sort(sorted, (a, b) -> insertionKeys[a].compareTo(insertionKeys[b]));
+
+    String[] keys = new String[size];
+    String[] values = new String[size];
+    int[] order = new int[size];
+    for (i = 0; i < size; i++) {
+      int inserted = sorted[i];
+      keys[i] = insertionKeys[inserted];
+      values[i] = insertionValues[inserted];
+      order[inserted] = i;
+    }
+    return new StringTable(keys, values, order);
+  }
+
+  @Override
+  public String get(Object key) {
+    int i = indexOf(key);
+    return i >= 0 ? values[i] : null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return keys.length;
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super String, ? super String> action) {
+    for (int i : order) {
+      action.accept(keys[i], values[i]);
+    }
+  }
+
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    return new AbstractSet<Map.Entry<String, String>>() {
+      @Override
+      public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<Map.Entry<String, String>>() {
+          private int next;
+
+          @Override
+          public boolean hasNext() {
+            return next < order.length;
+          }
+
+          @Override
+          public Map.Entry<String, String> next() {
+            if (next >= order.length) {
+              throw new NoSuchElementException();
+            }
+            int i = order[next++];
+            return new AbstractMap.SimpleImmutableEntry<>(keys[i], values[i]);
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return keys.length;
+      }
+    };
+  }
+
+  private int indexOf(Object key) {
+    if (!(key instanceof String)) {
+      return -1;
+    }
+    return Arrays.binarySearch(keys, key);
+  }
+}
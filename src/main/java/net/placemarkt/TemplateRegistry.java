@@ -0,0 +1,75 @@
+package net.placemarkt;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
+import com.github.mustachejava.MustacheFactory;
+import java.io.StringReader;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * Compiled Mustache templates keyed by country code and template variant. Templates are compiled
+ * from the resolved CountryRules text the first time a country/variant pair is rendered and are
+ * shared by every AddressFormatter.
+ */
+class TemplateRegistry {
+
+  enum Variant {
+    ADDRESS("address_template"),
+    FALLBACK("fallback_template");
+
+    private final String field;
+
+    Variant(String field) {
+      this.field = field;
+    }
+
+    String getTemplate(CountryRules rules) {
+      return this == ADDRESS ? rules.getAddressTemplate() : rules.getFallbackTemplate();
+    }
+  }
+
+  private final MustacheFactory mustacheFactory = new DefaultMustacheFactory();
+  private final Map<Variant, ConcurrentMap<String, Mustache>> compiled = new EnumMap<>(Variant.class);
+
+  TemplateRegistry() {
+    for (Variant variant : Variant.values()) {
+      compiled.put(variant, new ConcurrentHashMap<>());
+    }
+  }
+
+  public Mustache get(CountryRules rules, Variant variant) {
+    return get(rules, variant, FormatterMetrics.NOOP);
+  }
+
+  public Mustache get(CountryRules rules, Variant variant, FormatterMetrics metrics) {
+    ConcurrentMap<String, Mustache> templates = compiled.get(variant);
+    Mustache mustache = templates.get(rules.getCountryCode());
+    if (mustache == null) {
+      metrics.templateCacheMiss();
+      // Compiled outside the map so a virtual thread is not pinned by its bin lock meanwhile
+      mustache = compile(rules, variant);
+      Mustache existing = templates.putIfAbsent(rules.getCountryCode(), mustache);
+      if (existing != null) {
+        mustache = existing;
+      }
+    } else {
+      metrics.templateCacheHit();
+    }
+    return mustache;
+  }
+
+  public int size() {
+    int size = 0;
+    for (Map<String, Mustache> templates : compiled.values()) {
+      size += templates.size();
+    }
+    return size;
+  }
+
+  private Mustache compile(CountryRules rules, Variant variant) {
+    return mustacheFactory.compile(new StringReader(variant.getTemplate(rules)), rules.getCountryCode() + "_" + variant.field);
+  }
+}
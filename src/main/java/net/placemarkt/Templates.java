@@ -4,6 +4,16 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
 
 enum Templates {
   WORLDWIDE("worldwide.json"),
@@ -18,21 +28,122 @@ enum Templates {
     ObjectMapper jsonWriter = new ObjectMapper();
   }
 
-  private final JsonNode data;
+  static final String COUNTRIES_PROPERTY = "placemarkt.countries";
+
+  private static final AtomicReference<RuleSet> RULES = new AtomicReference<>(loadRules());
+
+  private final String fileName;
 
   Templates(String fileName) {
-    this.data = setData(fileName);
+    this.fileName = fileName;
   }
 
-  public JsonNode getData() {
-    return this.data;
+  /*
+   * Reads and parses this JSON resource on every call; nothing is cached. The formatter itself runs
+   * on the RuleSet built from it, so the tree is only needed while loading rules when there is no
+   * usable rule snapshot on the classpath, and is garbage once they are built.
+   */
+  JsonNode readJson() {
+    return readData(this.fileName);
   }
 
-  private static JsonNode setData(String fileName) {
-    JsonNode node = null;
+  /*
+   * Returns the rules new format calls should use. A call takes them once and keeps them until it
+   * returns, see ComponentMap.
+   */
+  static RuleSet getRules() {
+    return RULES.get();
+  }
+
+  /*
+   * Publishes rules for every format call that starts from now on, and returns the rules they
+   * replace.
+   */
+  static RuleSet replaceRules(RuleSet rules) {
+    return RULES.getAndSet(rules);
+  }
+
+  /*
+   * Returns the country codes set in the placemarkt.countries system property, separated by commas,
+   * or null when it is unset or blank and every country should be loaded.
+   */
+  static Set<String> getConfiguredCountries() {
+    String countries = System.getProperty(COUNTRIES_PROPERTY, "").trim();
+    if (countries.isEmpty()) {
+      return null;
+    }
+    Set<String> countryCodes = new TreeSet<>();
+    for (String countryCode : countries.split(",")) {
+      if (!countryCode.trim().isEmpty()) {
+        countryCodes.add(countryCode.trim());
+      }
+    }
+    return countryCodes;
+  }
+
+  /*
+   * Loads the rules from the binary snapshot when one is on the classpath, and otherwise from the
+   * transpiled JSON resources, keeping only the countries in placemarkt.countries when it is set.
+   */
+  static RuleSet loadRules() {
+    RuleSet rules = null;
     try {
-      ClassLoader cl = Thread.currentThread().getContextClassLoader();
-      InputStream is = cl.getResourceAsStream(fileName);
+      rules = RuleSnapshot.load();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    if (rules == null) {
+      rules = loadJsonRules();
+    }
+    Set<String> countries = getConfiguredCountries();
+    return countries != null ? rules.restrictTo(countries) : rules;
+  }
+
+  /*
+   * Loads rules from a directory or jar holding the resources the Transpiler writes, from the
+   * snapshot when there is one and otherwise from the JSON files. Unlike the classpath resources, a
+   * missing or unreadable file fails the load. So does a location that is neither a directory nor a
+   * jar, which the zip file system would otherwise report with unchecked exceptions.
+   */
+  static RuleSet loadRules(Path location) throws IOException {
+    if (Files.isDirectory(location)) {
+      return loadRulesFrom(location);
+    }
+    if (!Files.isRegularFile(location)) {
+      throw new NoSuchFileException(location.toString());
+    }
+    try (FileSystem jar = FileSystems.newFileSystem(location, (ClassLoader) null)) {
+      return loadRulesFrom(jar.getPath("/"));
+    } catch (ProviderNotFoundException | FileSystemNotFoundException e) {
+      throw new IOException("Not a directory or jar: " + location, e);
+    }
+  }
+
+  private static RuleSet loadRulesFrom(Path root) throws IOException {
+    Path snapshot = root.resolve(RuleSnapshot.RESOURCE);
+    if (Files.isRegularFile(snapshot)) {
+      return RuleSnapshot.read(snapshot);
+    }
+    JsonNode[] data = new JsonNode[values().length];
+    for (Templates resource : values()) {
+      try (InputStream is = Files.newInputStream(root.resolve(resource.fileName))) {
+        data[resource.ordinal()] = Constants.jsonWriter.readTree(is);
+      }
+    }
+    return RuleSet.fromJson(data[WORLDWIDE.ordinal()], data[COUNTRY_NAMES.ordinal()], data[ALIASES.ordinal()],
+        data[ABBREVIATIONS.ordinal()], data[COUNTRY_2_LANG.ordinal()], data[COUNTY_CODES.ordinal()],
+        data[STATE_CODES.ordinal()]);
+  }
+
+  static RuleSet loadJsonRules() {
+    return RuleSet.fromJson(WORLDWIDE.readJson(), COUNTRY_NAMES.readJson(), ALIASES.readJson(),
+        ABBREVIATIONS.readJson(), COUNTRY_2_LANG.readJson(), COUNTY_CODES.readJson(), STATE_CODES.readJson());
+  }
+
+  private static JsonNode readData(String fileName) {
+    JsonNode node = null;
+    ClassLoader cl = Thread.currentThread().getContextClassLoader();
+    try (InputStream is = cl.getResourceAsStream(fileName)) {
       node = Constants.jsonWriter.readTree(is);
     } catch (IOException e) {
       e.printStackTrace();
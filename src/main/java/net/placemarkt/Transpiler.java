@@ -8,6 +8,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.fasterxml.jackson.dataformat.yaml.YAMLParser;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -33,6 +34,7 @@ public class Transpiler {
     Transpiler.transpileCountry2Lang();
     Transpiler.transpileCountyCodes();
     Transpiler.transpileStateCodes();
+    Transpiler.transpileSnapshot();
   }
 
   static void transpileWorldwide() {
@@ -201,6 +203,32 @@ public class Transpiler {
     }
   }
 
+  /*
+  Builds the rule model from the JSON written above and stores it as the binary snapshot the
+  runtime loads first
+   */
+  static void transpileSnapshot() {
+    try {
+      RuleSet rules = RuleSet.fromJson(
+          readJson("src/main/resources/worldwide.json"),
+          readJson("src/main/resources/countryNames.json"),
+          readJson("src/main/resources/aliases.json"),
+          readJson("src/main/resources/abbreviations.json"),
+          readJson("src/main/resources/country2Lang.json"),
+          readJson("src/main/resources/countyCodes.json"),
+          readJson("src/main/resources/stateCodes.json"));
+      try (OutputStream out = Files.newOutputStream(Paths.get("src/main/resources", RuleSnapshot.RESOURCE))) {
+        RuleSnapshot.write(rules, out);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  static JsonNode readJson(String path) throws IOException {
+    return Constants.jsonWriter.readTree(Paths.get(path).toFile());
+  }
+
   static String readFile(String path)
       throws IOException
   {
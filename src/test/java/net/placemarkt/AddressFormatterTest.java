@@ -3,7 +3,15 @@ package net.placemarkt;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.base.CaseFormat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -15,10 +23,29 @@ import org.junit.runners.Parameterized;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.Assert;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 
@@ -147,6 +174,28 @@ public class AddressFormatterTest {
           + "United States of America\n", formatted);
     }
 
+    @Test
+    public void laysOutAddressesForOutputMode() throws Exception {
+      String json = "{houseNumber: '301', road: 'Hamilton Avenue', city: 'Palo Alto', postcode: '94303', "
+          + "state: 'California', countryCode: 'US'}";
+      AddressFormatter singleLine = AddressFormatter.builder().appendCountry(true)
+          .outputMode(OutputMode.singleLine(" | ")).build();
+      assertEquals("301 Hamilton Avenue | Palo Alto, CA 94303 | United States of America", singleLine.format(json));
+      AddressFormatter twoLines = AddressFormatter.builder().appendCountry(true)
+          .outputMode(OutputMode.maxLines(2)).build();
+      assertEquals("301 Hamilton Avenue\n"
+          + "Palo Alto, CA 94303, United States of America\n", twoLines.format(json));
+      AddressFormatter twoLabelLines = AddressFormatter.builder().appendCountry(true)
+          .outputMode(OutputMode.maxLines(2, " / ")).build();
+      assertEquals("301 Hamilton Avenue\n"
+          + "Palo Alto, CA 94303 / United States of America\n", twoLabelLines.format(json));
+      AddressFormatter fiveLines = AddressFormatter.builder().appendCountry(true)
+          .outputMode(OutputMode.maxLines(5)).build();
+      assertEquals(formatterWithAppendCountryFlag.format(json), fiveLines.format(json));
+      assertThrows(IllegalArgumentException.class, () -> OutputMode.maxLines(0));
+      assertThrows(IllegalArgumentException.class, () -> OutputMode.maxLines(2, null));
+    }
+
     @Test
     public void correctlyAbbreviatesAvenue() throws Exception {
       String json = "{country_code: 'US',\n"
@@ -242,5 +291,460 @@ public class AddressFormatterTest {
       String formatted = formatter.format(json);
       assertEquals("Baner\nPune\nMaharashtra\nIndia\n", formatted);
     }
+
+    @Test
+    public void formatsComponentMap() {
+      Map<String, Object> components = new HashMap<>();
+      components.put("houseNumber", 301);
+      components.put("road", "Hamilton Avenue");
+      components.put("city", "Palo Alto");
+      components.put("postcode", 94303);
+      components.put("state", "California");
+      components.put("countryCode", "US");
+      String formatted = formatterWithAppendCountryFlag.format(components);
+      assertEquals("301 Hamilton Avenue\n"
+          + "Palo Alto, CA 94303\n"
+          + "United States of America\n", formatted);
+    }
+
+    @Test
+    public void formatsStrictJson() throws Exception {
+      String json = "{\"house_number\": \"301\", \"road\": \"Hamilton Avenue\", \"city\": \"Palo Alto\","
+          + " \"postcode\": \"94303\", \"state\": \"California\", \"country_code\": \"US\"}";
+      String formatted = formatterWithAppendCountryFlag.format(json);
+      assertEquals("301 Hamilton Avenue\n"
+          + "Palo Alto, CA 94303\n"
+          + "United States of America\n", formatted);
+    }
+
+    @Test
+    public void prefersSnakeCaseKeysAndSortsUnknownComponents() throws Exception {
+      String json = "{\"stateCode\": \"WA\", \"house_number\": \"301\", \"road\": \"Hamilton Avenue\","
+          + " \"city\": \"Palo Alto\", \"postcode\": \"94303\", \"state_code\": \"CA\", \"country_code\": \"US\","
+          + " \"zz_unknown\": \"Second\", \"aa_unknown\": \"First\"}";
+      String expected = "First, Second\n"
+          + "301 Hamilton Avenue\n"
+          + "Palo Alto, CA 94303\n"
+          + "United States of America\n";
+      assertEquals(expected, formatterWithAppendCountryFlag.format(json));
+      assertEquals("Baner\nPune\nMaharashtra\nIndia\n",
+          formatter.format("{\"country_code\": \"IN\", \"road\": \"Baner\", \"city\": \"Pune\","
+              + " \"state\": \"Maharashtra\", \"country\": \"India\"}"));
+    }
+
+    @Test
+    public void formatsBatchInOrderAndCollectsErrors() {
+      List<String> jsons = Arrays.asList(
+          "{country_code: 'US', house_number: '301', road: 'Hamilton Avenue', city: 'Palo Alto',"
+              + " postcode: '94303', state: 'California', country: 'United States'}",
+          "{",
+          "{country_code: 'IN', road: 'Baner', city: 'Pune', state: 'Maharashtra', country: 'India'}");
+      List<FormatResult> results = formatter.formatAll(jsons, null, new ForkJoinPool(2));
+      assertEquals(3, results.size());
+      assertEquals("301 Hamilton Avenue\n"
+          + "Palo Alto, CA 94303\n"
+          + "United States of America\n", results.get(0).getAddress());
+      assertFalse(results.get(1).isSuccess());
+      assertEquals("Json processing exception", results.get(1).getError().getMessage());
+      assertEquals("Baner\nPune\nMaharashtra\nIndia\n", results.get(2).getAddress());
+    }
+
+    @Test
+    public void formatsAsynchronouslyOnTheGivenExecutor() throws Exception {
+      String json = "{country_code: 'IN', road: 'Baner', city: 'Pune', state: 'Maharashtra', country: 'India'}";
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+        assertEquals(formatter.format(json), formatter.formatAsync(json, null, executor).get());
+        ExecutionException error = assertThrows(ExecutionException.class,
+            () -> formatter.formatAsync("{road: 'Baner'}", null, executor).get());
+        assertTrue(error.getCause() instanceof InvalidAddressException);
+      } finally {
+        executor.shutdown();
+      }
+    }
+
+    @Test
+    public void formatsToAppendables() throws Exception {
+      String json = "{country_code: 'IN', road: 'Baner', city: 'Pune', state: 'Maharashtra', country: 'India'}";
+      String expected = formatter.format(json);
+      StringBuilder builder = new StringBuilder("> ");
+      formatter.formatTo(builder, json);
+      assertEquals("> " + expected, builder.toString());
+      StringWriter writer = new StringWriter();
+      formatter.formatTo(writer, json);
+      assertEquals(expected, writer.toString());
+      CharBuffer buffer = CharBuffer.allocate(256);
+      formatter.formatTo(buffer, json);
+      buffer.flip();
+      assertEquals(expected, buffer.toString());
+      StringBuilder failed = new StringBuilder();
+      assertThrows(InvalidAddressException.class, () -> formatter.formatTo(failed, "{road: 'Baner'}"));
+      assertEquals(0, failed.length());
+    }
+
+    @Test
+    public void reloadsRulesWithoutChangingOutput() throws Exception {
+      String json = "{country_code: 'IN', road: 'Baner', city: 'Pune', state: 'Maharashtra', country: 'India'}";
+      String before = formatter.format(json);
+      long version = AddressFormatter.getRulesVersion();
+      ReloadReport report = AddressFormatter.reloadRules(Paths.get("src/main/resources"));
+      assertEquals(version, report.getPreviousVersion());
+      assertEquals(report.getVersion(), AddressFormatter.getRulesVersion());
+      assertTrue(report.getVersion() > version);
+      assertTrue(report.getCompiled().getTemplateCount() > 0);
+      assertEquals(before, formatter.format(json));
+      assertThrows(IOException.class, () -> AddressFormatter.reloadRules(Paths.get("no-such-rules")));
+      Path text = Files.createTempFile("rules", ".txt");
+      try {
+        Files.write(text, "not a jar".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> AddressFormatter.reloadRules(text));
+      } finally {
+        Files.delete(text);
+      }
+      assertEquals(report.getVersion(), AddressFormatter.getRulesVersion());
+    }
+
+    @Test
+    public void restrictsRulesToCountrySubset() throws Exception {
+      String json = "{country_code: 'IN', road: 'Baner', city: 'Pune', state: 'Maharashtra', country: 'India'}";
+      String before = formatter.format(json);
+      RuleSet full = Templates.getRules();
+      try {
+        ReloadReport report = AddressFormatter.restrictRules(Collections.singleton("in"));
+        assertEquals(new TreeSet<>(Arrays.asList("IN", "default")), report.getCompiled().getCountryCodes());
+        assertEquals(before, formatter.format(json));
+        assertEquals(FormatResult.Status.INVALID_COUNTRY_CODE,
+            formatter.tryFormat("{country_code: 'US', road: 'Main Street'}").getStatus());
+        assertEquals(Collections.singleton("IN"), Templates.getRules().getCountryLanguages().keySet());
+      } finally {
+        Templates.replaceRules(full);
+      }
+    }
+
+    @Test
+    public void rejectsCorruptRuleSnapshots() throws Exception {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      RuleSnapshot.write(Templates.getRules(), out);
+      byte[] snapshot = out.toByteArray();
+      assertEquals(Templates.getRules().getCountryRules().keySet(),
+          RuleSnapshot.read(ByteBuffer.wrap(snapshot)).getCountryRules().keySet());
+
+      IOException truncated = assertThrows(IOException.class,
+          () -> RuleSnapshot.read(ByteBuffer.wrap(Arrays.copyOf(snapshot, snapshot.length / 2))));
+      assertEquals("Truncated rule snapshot", truncated.getMessage());
+
+      ByteBuffer negativeCount = ByteBuffer.allocate(12);
+      negativeCount.putInt(RuleSnapshot.MAGIC).putInt(RuleSnapshot.VERSION).putInt(-1).flip();
+      IOException corrupt = assertThrows(IOException.class, () -> RuleSnapshot.read(negativeCount));
+      assertEquals("Corrupt rule snapshot", corrupt.getMessage());
+    }
+
+    @Test
+    public void reportsStatusOfInvalidRecords() {
+      assertEquals(FormatResult.Status.OK, formatter.tryFormat("{country_code: 'US', road: 'Main Street'}").getStatus());
+      assertEquals(FormatResult.Status.MISSING_COUNTRY_CODE, formatter.tryFormat("{road: 'Main Street'}").getStatus());
+      assertEquals(FormatResult.Status.INVALID_COUNTRY_CODE,
+          formatter.tryFormat("{country_code: 'U1', road: 'Main Street'}").getStatus());
+      assertEquals(FormatResult.Status.MALFORMED_INPUT, formatter.tryFormat("{").getStatus());
+
+      InvalidAddressException error = assertThrows(InvalidAddressException.class,
+          () -> formatter.format("{road: 'Main Street'}"));
+      assertEquals("No country code provided. Use fallbackCountryCode?", error.getMessage());
+      assertEquals(0, error.getStackTrace().length);
+    }
+
+    @Test
+    public void bulkFormatsNdjsonInOrder() throws Exception {
+      String input = "{\"country_code\": \"US\", \"house_number\": \"301\", \"road\": \"Hamilton Avenue\","
+          + " \"city\": \"Palo Alto\", \"postcode\": \"94303\", \"state\": \"California\","
+          + " \"country\": \"United States\"}\n"
+          + "\n"
+          + "{\n"
+          + "{\"country_code\": \"IN\", \"road\": \"Baner\", \"city\": \"Pune\", \"state\": \"Maharashtra\","
+          + " \"country\": \"India\"}\n";
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      long count = new BulkFormatter(formatter, 2, 1).format(
+          Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))),
+          Channels.newChannel(output), BulkFormatter.InputFormat.NDJSON, null);
+      assertEquals(3, count);
+      assertEquals("{\"address\":\"301 Hamilton Avenue\\nPalo Alto, CA 94303\\nUnited States of America\\n\"}\n"
+          + "{\"error\":\"Json processing exception\"}\n"
+          + "{\"address\":\"Baner\\nPune\\nMaharashtra\\nIndia\\n\"}\n",
+          new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void bulkWritesFormattedRecordsBeforeAMalformedOne() throws Exception {
+      String records = "country_code,road,city\n"
+          + "US,Main Street,Springfield\n"
+          + "IN,Baner,Pune\n";
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      assertEquals(2, new BulkFormatter(formatter, 2, 16).format(
+          Channels.newChannel(new ByteArrayInputStream(records.getBytes(StandardCharsets.UTF_8))),
+          Channels.newChannel(expected), BulkFormatter.InputFormat.CSV, null));
+
+      String input = records + "US,\"Elm Street,Springfield\n";
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      IOException error = assertThrows(IOException.class, () -> new BulkFormatter(formatter, 2, 16).format(
+          Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))),
+          Channels.newChannel(output), BulkFormatter.InputFormat.CSV, null));
+      assertEquals("Unterminated quoted CSV field", error.getMessage());
+      assertEquals(new String(expected.toByteArray(), StandardCharsets.UTF_8),
+          new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void cachesRepeatedComponents() throws Exception {
+      AddressFormatter cached = AddressFormatter.builder().resultCache(16).build();
+      String json = "{country_code: 'US', house_number: '301', road: 'Hamilton Avenue', city: 'Palo Alto',"
+          + " postcode: '94303', state: 'California', country: 'United States'}";
+      String first = cached.format(json);
+      assertEquals(formatter.format(json), first);
+      assertEquals(first, cached.format(json, null));
+      assertEquals(1, cached.getResultCacheStats().get().hitCount());
+
+      String invalid = "{country_code: 'U1', road: 'Hamilton Avenue'}";
+      assertThrows(InvalidAddressException.class, () -> cached.format(invalid));
+      assertThrows(InvalidAddressException.class, () -> cached.format(invalid));
+      assertFalse(formatter.getResultCacheStats().isPresent());
+    }
+
+    @Test
+    public void reportsStageTimingsAndCountries() throws Exception {
+      Map<FormatterMetrics.Stage, Integer> stages = new EnumMap<>(FormatterMetrics.Stage.class);
+      List<String> countries = new ArrayList<>();
+      FormatterMetrics metrics = new FormatterMetrics() {
+        @Override
+        public void stageCompleted(Stage stage, long nanos) {
+          assertTrue(nanos >= 0);
+          stages.merge(stage, 1, Integer::sum);
+        }
+
+        @Override
+        public void countryFormatted(String countryCode) {
+          countries.add(countryCode);
+        }
+      };
+      AddressFormatter instrumented = new AddressFormatter(true, false, metrics);
+      instrumented.format("{country_code: 'US', house_number: '301', road: 'Hamilton Avenue',"
+          + " city: 'Palo Alto', postcode: '94303', state: 'California'}");
+      assertEquals(EnumSet.allOf(FormatterMetrics.Stage.class), stages.keySet());
+      assertEquals(Collections.singletonList("US"), countries);
+    }
+
+    @Test
+    public void preloadsRequestedCountries() {
+      PreloadReport report = formatterWithAbbreviationFlag.preload(new HashSet<>(Arrays.asList("us", "XX")));
+      assertTrue(report.getCountryCodes().contains("US"));
+      assertTrue(report.getCountryCodes().contains("default"));
+      assertEquals(Collections.singleton("XX"), report.getUnknownCountryCodes());
+      assertTrue(report.getTemplateCount() >= 2);
+      assertTrue(report.getAbbreviationRuleCount() > 0);
+    }
+
+    @Test
+    public void normalizesKeysLikeCaseFormat() {
+      Map<String, String> aliases = new LinkedHashMap<>();
+      aliases.put("house_number", "house_number");
+      aliases.put("street_number", "house_number");
+      aliases.put("postcode", "postcode");
+      ComponentSchema schema = new ComponentSchema(aliases);
+      for (String field : Arrays.asList("houseNumber", "street_number", "postcode", "postCode", "fooBar", "ABC")) {
+        KeyNormalizer.Key key = schema.normalizeKey(field);
+        String expected = CaseFormat.LOWER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, field);
+        assertEquals(expected, key.getName());
+        assertEquals(schema.slotOf(expected), key.getSlot());
+        assertEquals(expected.equals(field), key.isUnchanged());
+      }
+    }
+
+    @Test
+    public void keysRegexCacheOnFlagsAndEvictsPastItsBound() {
+      RegexPatternCache cache = new RegexPatternCache(2);
+      Pattern plain = cache.get("aruba");
+      Pattern caseInsensitive = cache.get("aruba", Pattern.CASE_INSENSITIVE);
+      assertFalse(plain == caseInsensitive);
+      assertEquals(0, plain.flags());
+      assertEquals(Pattern.CASE_INSENSITIVE, caseInsensitive.flags());
+      assertTrue(plain == cache.get("aruba"));
+      assertEquals(1, cache.stats().hitCount());
+      assertEquals(2, cache.stats().missCount());
+
+      cache.get("sint maarten");
+      assertEquals(2, cache.size());
+      assertEquals(1, cache.stats().evictionCount());
+      assertTrue(plain == cache.get("aruba"));
+      assertFalse(caseInsensitive == cache.get("aruba", Pattern.CASE_INSENSITIVE));
+
+      long misses = AddressFormatter.getRegexCacheStats().missCount();
+      long hits = AddressFormatter.getRegexCacheStats().hitCount();
+      formatter.tryFormat("{country_code: 'US', road: 'Main Street', postcode: '12345,67890'}");
+      assertTrue(AddressFormatter.getRegexCacheStats().missCount() + AddressFormatter.getRegexCacheStats().hitCount()
+          > misses + hits);
+    }
+
+    @Test
+    public void looksUpStateAndCountyCodesByFoldedName() {
+      RuleSet rules = Templates.getRules();
+      assertEquals("CA", rules.getStateCode("US", "California"));
+      assertEquals("CA", rules.getStateCode("US", "CALIFORNIA"));
+      assertEquals("BC", rules.getStateCode("CA", "British Columbia"));
+      assertEquals("BC", rules.getStateCode("CA", "colombie-britannique"));
+      assertEquals(null, rules.getStateCode("US", "British Columbia"));
+
+      assertEquals("MI", rules.getCountyCode("IT", "Milano"));
+      assertEquals("MI", rules.getCountyCode("IT", "milan"));
+      assertEquals(null, rules.getCountyCode("IT", "Atlantis"));
+      assertEquals(null, rules.getCountyCode("ZZ", "Milano"));
+    }
+
+    @Test
+    public void looksUpStringTablesAndKeepsTheirOrder() {
+      Map<String, String> abbreviations = new LinkedHashMap<>();
+      abbreviations.put("Street", "St");
+      abbreviations.put("Avenue", "Ave");
+      abbreviations.put("Boulevard", "Blvd");
+      StringPool strings = new StringPool();
+      Map<String, String> table = StringTable.copyOf(abbreviations, strings);
+      assertEquals(abbreviations, table);
+      assertEquals(new ArrayList<>(abbreviations.keySet()), new ArrayList<>(table.keySet()));
+      assertEquals("Ave", table.get("Avenue"));
+      assertEquals(null, table.get("Road"));
+      assertTrue(strings.intern(new String("Blvd")) == table.get("Boulevard"));
+    }
+
+    @Test
+    public void appliesScopedReplaceRulesOnlyToTheirComponent() {
+      CountryRules.ReplaceProgram program = new CountryRules.ReplaceProgram(Arrays.asList(
+          new CountryRules.Replacement("^Town of ", "", true),
+          new CountryRules.Replacement("city=^Berlin Stadt$", "Berlin", true),
+          new CountryRules.Replacement(" Stadt$", " City", true)));
+      assertEquals("Berlin", program.apply("city", "Town of Berlin Stadt"));
+      assertEquals("Berlin City", program.apply("road", "Town of Berlin Stadt"));
+      assertEquals("city=Berlin City", program.apply("road", "city=Berlin Stadt"));
+    }
+
+    @Test
+    public void appliesAbbreviationsInTurnAcrossLanguages() {
+      Map<String, Map<String, Map<String, String>>> abbreviations = new HashMap<>();
+      Map<String, String> english = new LinkedHashMap<>();
+      english.put("Road", "Rd");
+      english.put("Service Road", "Svc Rd");
+      english.put("Avenue", "Ave");
+      english.put("Saint", "St");
+      english.put("Street1", "St1");
+      english.put("Street10", "St10");
+      english.put("Rd.", "Rd");
+      abbreviations.put("en", Collections.singletonMap("road", english));
+      Map<String, String> other = new LinkedHashMap<>();
+      other.put("St", "S.");
+      other.put("Rd", "R");
+      abbreviations.put("xx", Collections.singletonMap("road", other));
+
+      AbbreviationRules rules = AbbreviationRules.merge(Arrays.asList("en", "xx"), abbreviations);
+      AbbreviationRules.Rule road = rules.getRules().get("road");
+      assertEquals(9, road.size());
+      assertEquals("Service Rd", AbbreviationRules.merge(Collections.singletonList("en"), abbreviations)
+          .getRules().get("road").apply("Service Road"));
+      assertEquals("Service R", road.apply("Service Road"));
+      assertEquals("S. Mary Ave", road.apply("Saint Mary Avenue"));
+
+      String[] words = {"Road", "Service", "Avenue", "Saint", "St", "Rd", "Roads", "Street", "1", "0", ".", " ", " ", ","};
+      Random random = new Random(7);
+      for (int i = 0; i < 2000; i++) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = random.nextInt(8); j > 0; j--) {
+          sb.append(words[random.nextInt(words.length)]);
+        }
+        String value = sb.toString();
+        String expected = value;
+        for (Map<String, String> language : Arrays.asList(english, other)) {
+          for (Map.Entry<String, String> rule : language.entrySet()) {
+            expected = expected.replaceAll("\\b" + Pattern.quote(rule.getKey()) + "\\b", rule.getValue());
+          }
+        }
+        assertEquals(value, expected, road.apply(value));
+      }
+    }
+
+    @Test
+    public void groupsAbbreviationsThatCannotInteractIntoOnePass() {
+      Map<String, String> abbreviations = new LinkedHashMap<>();
+      abbreviations.put("Street", "St");
+      abbreviations.put("Avenue", "Ave");
+      abbreviations.put("Road", "Rd");
+      abbreviations.put("Service Road", "Svc Rd");
+      abbreviations.put("Boulevard", "Blvd");
+      abbreviations.put("Street1", "St1");
+      abbreviations.put("Street10", "St10");
+      AbbreviationRules.Rule rule = AbbreviationRules.merge(Collections.singletonList("en"),
+          Collections.singletonMap("en", Collections.singletonMap("road", abbreviations))).getRules().get("road");
+      assertEquals(2, rule.getPassCount());
+      assertTrue(AbbreviationRules.Rule.overlaps("Road", "Service Road"));
+      assertTrue(AbbreviationRules.Rule.overlaps("Rd", "Rd."));
+      assertTrue(AbbreviationRules.Rule.overlaps("St Mary", "Mary Ave"));
+      assertFalse(AbbreviationRules.Rule.overlaps("Street", "Avenue"));
+      assertFalse(AbbreviationRules.Rule.overlaps("Street1", "Street10"));
+      assertFalse(AbbreviationRules.Rule.overlaps("Street", "Street1"));
+      assertTrue(AbbreviationRules.Rule.overlaps("Street", "Street 1"));
+    }
+  }
+
+  public static class RenderCleanerTests {
+    private static final String[][] RULES = {
+        {"^- ", ""},
+        {"[ \t]\n", "\n"},
+        {"\n+", "\n"},
+        {",\\s*,", ", "},
+        {"\n,", "\n"},
+        {"[ \t]+,[ \t]+", ", "},
+        {"\n[ \t]+", "\n"},
+        {"[\\},\\s]+$", ""},
+        {"[ \t][ \t]+", " "},
+        {"^[,\\s]+", ""},
+        {",\n", "\n"},
+        {",+", ","},
+    };
+
+    private static String regexCleanup(String rendered) {
+      String deduped = rendered;
+      for (String[] rule : RULES) {
+        Pattern p = Pattern.compile(rule[0], Pattern.UNICODE_CHARACTER_CLASS);
+        deduped = regexDedupe(p.matcher(deduped).replaceAll(rule[1]));
+      }
+      return deduped;
+    }
+
+    private static String regexDedupe(String rendered) {
+      return Arrays.stream(rendered.split("\n"))
+          .map(s -> Arrays.stream(s.trim().split(", "))
+              .map(String::trim).distinct().collect(Collectors.joining(", ")))
+          .distinct()
+          .collect(Collectors.joining("\n"));
+    }
+
+    @Test
+    public void cleansRenderedAddress() {
+      RenderCleaner cleaner = new RenderCleaner();
+      assertEquals("301 Hamilton Avenue\nPalo Alto, CA 94303\nUnited States of America",
+          cleaner.clean("\n\n301  Hamilton Avenue \n Palo Alto, CA 94303 ,\n\nUnited States of America\n\n"));
+      assertEquals("Berlin, Mitte\nGermany", cleaner.clean("- Berlin , , Mitte, Berlin\nGermany\nGermany\n}"));
+    }
+
+    @Test
+    public void matchesRegexRulesOnRandomInput() {
+      String[] alphabet = {" ", "\t", "\n", ",", "-", "}", "a", "b", "\u00a0", "\r", "\u2028", ", ", "- ", "\n\n"};
+      Random random = new Random(42);
+      RenderCleaner cleaner = new RenderCleaner();
+      for (int i = 0; i < 20000; i++) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(24);
+        for (int j = 0; j < length; j++) {
+          sb.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        String rendered = sb.toString();
+        assertEquals(rendered, regexCleanup(rendered), cleaner.clean(rendered));
+      }
+    }
   }
 }